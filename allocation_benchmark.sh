@@ -0,0 +1,2 @@
+javac -encoding UTF-8 -sourcepath .:benchmark benchmark/com/craftinginterpreters/lox/AllocationBenchmark.java
+java -cp .:benchmark com.craftinginterpreters.lox.AllocationBenchmark ${@:-benchmark/*.lox}
@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+// Runs each script several times and reports how many bytes the interpreter
+// allocated per run. Scanning, parsing and resolving happen once up front and
+// aren't measured.
+//
+// Usage: allocation_benchmark.sh [script ...]
+public class AllocationBenchmark {
+  private static final int WARMUP_RUNS = 5;
+  private static final int MEASURED_RUNS = 10;
+
+  public static void main(String[] args) throws IOException {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    PrintStream out = System.out;
+
+    out.printf("%-32s %16s %10s%n", "script", "bytes/run", "ms/run");
+    for (String path : args) {
+      String source = new String(Files.readAllBytes(Paths.get(path)),
+                                 StandardCharsets.UTF_8);
+      List<Stmt> statements = new Parser(new Scanner(source)).parseStatements();
+      new Resolver().resolve(statements);
+      if (Lox.hadError) {
+        System.exit(65);
+      }
+
+      // Scripts print their result. Keep it out of the report.
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      for (int i = 0; i < WARMUP_RUNS; ++i) {
+        new Interpreter().interpret(statements);
+      }
+      long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+      long timeBefore = System.nanoTime();
+      for (int i = 0; i < MEASURED_RUNS; ++i) {
+        new Interpreter().interpret(statements);
+      }
+      long time = System.nanoTime() - timeBefore;
+      long bytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+      System.setOut(out);
+
+      out.printf("%-32s %16d %10.2f%n", Paths.get(path).getFileName(),
+                 bytes / MEASURED_RUNS, time / 1e6 / MEASURED_RUNS);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs every script in benchmark/corpus/ end to end through `Lox.main` and
+// reports, for each one:
+//   cold    wall-clock time of a fresh JVM running the script once
+//   steady  median time per run once the JVM has warmed up
+//   rss     the larger peak resident set size of the two JVMs
+// Each measurement runs in its own JVM so scripts can't warm up or pollute the
+// heap for each other. The table is compared against the stored baseline, and
+// `--save-baseline` replaces it. Any other option is passed on to Lox.
+//
+// Usage: corpus_benchmark.sh [--save-baseline] [lox option ...]
+public class CorpusBenchmark {
+  private static final Path CORPUS = Paths.get("benchmark", "corpus");
+  private static final Path BASELINE = CORPUS.resolve("baseline.tsv");
+  private static final int STEADY_RUNS = 20;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--child")) {
+      child(Integer.parseInt(args[1]),
+            Arrays.copyOfRange(args, 2, args.length));
+      return;
+    }
+
+    boolean saveBaseline = false;
+    List<String> loxOptions = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.equals("--save-baseline")) {
+        saveBaseline = true;
+      } else {
+        loxOptions.add(arg);
+      }
+    }
+
+    List<Path> scripts;
+    try (Stream<Path> paths = Files.list(CORPUS)) {
+      scripts = paths.filter(path -> path.toString().endsWith(".lox"))
+                    .sorted()
+                    .collect(Collectors.toList());
+    }
+    Map<String, double[]> baseline = readBaseline();
+
+    StringBuilder header = new StringBuilder(String.format("%-20s", "script"));
+    for (String column : new String[] {"cold ms", "steady ms", "rss MB"}) {
+      header.append(String.format(" %9s %8s", column, "change"));
+    }
+    System.out.println(header);
+    List<String> rows = new ArrayList<>();
+    for (Path script : scripts) {
+      String name = script.getFileName().toString();
+      long start = System.nanoTime();
+      double[] cold = spawn(1, script, loxOptions);
+      double coldMs = (System.nanoTime() - start) / 1e6;
+      double[] steady = spawn(STEADY_RUNS, script, loxOptions);
+      double rssMb = Math.max(cold[1], steady[1]) / 1024;
+
+      double[] measured = {coldMs, steady[0], rssMb};
+      double[] before = baseline.get(name);
+      StringBuilder line = new StringBuilder(String.format("%-20s", name));
+      for (int i = 0; i < measured.length; ++i) {
+        line.append(String.format(" %9.1f", measured[i]));
+        line.append(before == null
+                        ? String.format(" %8s", "")
+                        : String.format(" %+7.1f%%",
+                                        100 * (measured[i] / before[i] - 1)));
+      }
+      System.out.println(line);
+      rows.add(String.format("%s\t%.1f\t%.1f\t%.1f", name, coldMs, steady[0],
+                             rssMb));
+    }
+
+    if (saveBaseline) {
+      rows.add(0, "# script\tcold ms\tsteady ms\tpeak rss MB");
+      Files.write(BASELINE, rows, StandardCharsets.UTF_8);
+      System.out.println("Saved baseline to " + BASELINE + ".");
+    } else if (baseline.isEmpty()) {
+      System.out.println("No baseline to compare against. Run with"
+                         + " --save-baseline to store one.");
+    }
+  }
+
+  // Runs the script `runs` times in a fresh JVM. Returns the median
+  // milliseconds per run over the second half of the runs, and the JVM's peak
+  // resident set size in KB.
+  private static double[] spawn(int runs, Path script, List<String> loxOptions)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                    .toString());
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(CorpusBenchmark.class.getName());
+    command.add("--child");
+    command.add(Integer.toString(runs));
+    command.addAll(loxOptions);
+    command.add(script.toString());
+
+    Process process = new ProcessBuilder(command)
+                          .redirectError(ProcessBuilder.Redirect.INHERIT)
+                          .start();
+    String result = null;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+             process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        result = line;
+      }
+    }
+    if (process.waitFor() != 0 || result == null) {
+      System.err.println("Failed to run " + script + ".");
+      System.exit(70);
+    }
+    String[] fields = result.split(" ");
+    return new double[] {Double.parseDouble(fields[0]),
+                         Double.parseDouble(fields[1])};
+  }
+
+  // Runs inside the spawned JVM. The script's own output is discarded; the
+  // only line printed is the result `spawn()` reads back.
+  private static void child(int runs, String[] loxArgs) throws IOException {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    double[] times = new double[runs];
+    for (int i = 0; i < runs; ++i) {
+      long start = System.nanoTime();
+      Lox.main(loxArgs);
+      times[i] = (System.nanoTime() - start) / 1e6;
+    }
+    System.setOut(out);
+
+    double[] measured = Arrays.copyOfRange(times, runs / 2, runs);
+    Arrays.sort(measured);
+    out.println(measured[measured.length / 2] + " " + peakRssKb());
+  }
+
+  // Reads the high-water mark of the resident set from /proc. Reports 0 where
+  // that isn't available.
+  private static long peakRssKb() throws IOException {
+    Path status = Paths.get("/proc/self/status");
+    if (!Files.exists(status))
+      return 0;
+    for (String line : Files.readAllLines(status)) {
+      if (line.startsWith("VmHWM:")) {
+        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+      }
+    }
+    return 0;
+  }
+
+  // Maps each script's file name to its baseline {cold, steady, rss}.
+  private static Map<String, double[]> readBaseline() throws IOException {
+    Map<String, double[]> baseline = new HashMap<>();
+    if (!Files.exists(BASELINE))
+      return baseline;
+    for (String line : Files.readAllLines(BASELINE, StandardCharsets.UTF_8)) {
+      if (line.isEmpty() || line.startsWith("#"))
+        continue;
+      String[] fields = line.split("\t");
+      baseline.put(fields[0], new double[] {Double.parseDouble(fields[1]),
+                                            Double.parseDouble(fields[2]),
+                                            Double.parseDouble(fields[3])});
+    }
+    return baseline;
+  }
+}
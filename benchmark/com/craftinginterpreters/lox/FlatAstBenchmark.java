@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+// Compares the object syntax tree with its `FlatAst` lowering on a large
+// generated program: the heap each one retains, and how long the tree-walking
+// interpreter and `FlatInterpreter` take to run it. Heap sizes are measured
+// as the growth in live heap after a full GC, so they're approximate.
+//
+// Usage: flat_ast_benchmark.sh [source size in characters]
+public class FlatAstBenchmark {
+  private static final int WARMUP_RUNS = 5;
+  private static final int MEASURED_RUNS = 10;
+  // How many times each generated function loops per call.
+  private static final int LOOP_COUNT = 20;
+
+  public static void main(String[] args) {
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 4 * 1024 * 1024;
+    String source = generate(size);
+
+    long before = liveHeap();
+    List<Stmt> parsed = new Parser(new Scanner(source)).parseStatements();
+    new Resolver().resolve(parsed);
+    if (Lox.hadError)
+      System.exit(65);
+    List<Stmt> statements = new Optimizer().optimize(parsed);
+    // Only count the tree that's run, not nodes the optimizer replaced.
+    parsed = null;
+    long treeBytes = liveHeap() - before;
+
+    before = liveHeap();
+    FlatAst ast = Flattener.flatten(statements);
+    long flatBytes = liveHeap() - before;
+
+    // The program prints its result. Keep it out of the report.
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    double treeMs = time(() -> new Interpreter().interpret(statements));
+    double flatMs =
+        time(() -> new FlatInterpreter(new Interpreter()).interpret(ast));
+    System.setOut(out);
+
+    out.printf("%d characters, %d flat nodes%n", source.length(),
+               ast.nodeCount);
+    out.printf("%-8s %12s %10s%n", "form", "heap KB", "ms/run");
+    out.printf("%-8s %12d %10.2f%n", "object", treeBytes / 1024, treeMs);
+    out.printf("%-8s %12d %10.2f%n", "flat", flatBytes / 1024, flatMs);
+  }
+
+  private static double time(Runnable run) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      run.run();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_RUNS; ++i) {
+      run.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / MEASURED_RUNS;
+  }
+
+  private static long liveHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; ++i) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  // Many small functions that declare locals, loop and branch, and a call to
+  // each at the end.
+  private static String generate(int size) {
+    StringBuilder builder = new StringBuilder(size + 256);
+    int functions = 0;
+    while (builder.length() < size) {
+      builder.append("fun f").append(functions).append("(count) {\n")
+          .append("  var total = 0;\n")
+          .append("  for (var i = 0; i < count; i = i + 1) {\n")
+          .append("    var scaled = i * ").append(functions % 7 + 1)
+          .append(";\n")
+          .append("    if (scaled > 10 and total < 1000) total = total + ")
+          .append("scaled; else total = total - 1;\n")
+          .append("  }\n")
+          .append("  return total;\n")
+          .append("}\n");
+      ++functions;
+    }
+    builder.append("var sum = 0;\n");
+    for (int i = 0; i < functions; ++i) {
+      builder.append("sum = sum + f").append(i).append("(")
+          .append(LOOP_COUNT).append(");\n");
+    }
+    builder.append("print sum;\n");
+    return builder.toString();
+  }
+}
@@ -0,0 +1,128 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures how global variable access scales when several threads share one
+// `GlobalEnvironment`, as spawned Lox threads do. Each thread reads a handful
+// of globals in a loop and assigns one of them every `WRITE_EVERY` reads.
+// For comparison, the same loop runs against a map behind a single lock, which
+// is what the globals used to be.
+//
+// Usage: globals_benchmark.sh [max threads]
+public class GlobalsBenchmark {
+  private static final int GLOBALS = 16;
+  private static final int WRITE_EVERY = 10;
+  private static final long WARMUP_MILLIS = 500;
+  private static final long MEASURED_MILLIS = 1000;
+
+  private interface Globals {
+    void define(Symbol name, Object value);
+    Object get(Token name);
+    void assign(Token name, Object value);
+  }
+
+  private static final class LockedGlobals implements Globals {
+    private final Map<Symbol, Object> values = new HashMap<>();
+
+    @Override
+    public synchronized void define(Symbol name, Object value) {
+      values.put(name, value);
+    }
+
+    @Override
+    public synchronized Object get(Token name) {
+      return values.get(name.symbol);
+    }
+
+    @Override
+    public synchronized void assign(Token name, Object value) {
+      values.put(name.symbol, value);
+    }
+  }
+
+  private static final class LockFreeGlobals implements Globals {
+    private final GlobalEnvironment environment = new GlobalEnvironment();
+
+    @Override
+    public void define(Symbol name, Object value) {
+      environment.define(name, value);
+    }
+
+    @Override
+    public Object get(Token name) {
+      return environment.get(name);
+    }
+
+    @Override
+    public void assign(Token name, Object value) {
+      environment.assign(name, value);
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    Token[] names = new Token[GLOBALS];
+    for (int i = 0; i < GLOBALS; ++i) {
+      names[i] = new Token(Symbol.intern("global" + i), 1);
+    }
+
+    System.out.printf("%-8s %16s %16s%n", "threads", "locked Mops/s",
+                      "lock-free Mops/s");
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      double locked = measure(new LockedGlobals(), names, threads);
+      double lockFree = measure(new LockFreeGlobals(), names, threads);
+      System.out.printf("%-8d %16.1f %16.1f%n", threads, locked, lockFree);
+    }
+  }
+
+  // Returns millions of accesses per second across all threads.
+  private static double measure(Globals globals, Token[] names, int threads)
+      throws InterruptedException {
+    for (Token name : names) {
+      globals.define(name.symbol, 0.0);
+    }
+    LongAdder operations = new LongAdder();
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    long[] window = new long[2];
+    for (int i = 0; i < threads; ++i) {
+      int first = i;
+      workers[i] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException error) {
+          return;
+        }
+        long count = 0;
+        int index = first;
+        while (!Thread.currentThread().isInterrupted()) {
+          Token name = names[index++ % GLOBALS];
+          Object value = globals.get(name);
+          if (++count % WRITE_EVERY == 0)
+            globals.assign(name, value);
+          if (count % 1024 == 0) {
+            long now = System.nanoTime();
+            if (now >= window[0] && now < window[1])
+              operations.add(1024);
+          }
+        }
+      });
+      workers[i].start();
+    }
+
+    window[0] = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+    window[1] = window[0] + MEASURED_MILLIS * 1_000_000;
+    start.countDown();
+    Thread.sleep(WARMUP_MILLIS + MEASURED_MILLIS + 50);
+    for (Thread worker : workers) {
+      worker.interrupt();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return operations.sum() / (MEASURED_MILLIS / 1e3) / 1e6;
+  }
+}
@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Scans each script, or a generated identifier-heavy source if no scripts are
+// given, several times and reports the scanner's throughput.
+//
+// Usage: scanner_benchmark.sh [script ...]
+public class ScannerBenchmark {
+  private static final int WARMUP_RUNS = 10;
+  private static final int MEASURED_RUNS = 20;
+  // Size of the generated source, in characters.
+  private static final int GENERATED_SIZE = 8 * 1024 * 1024;
+
+  public static void main(String[] args) throws IOException {
+    System.out.printf("%-32s %12s %10s %10s%n", "source", "tokens", "ms/run",
+                      "MB/s");
+    if (args.length == 0) {
+      report("<generated>", generate());
+    }
+    for (String path : args) {
+      String source = new String(Files.readAllBytes(Paths.get(path)),
+                                 StandardCharsets.UTF_8);
+      report(Paths.get(path).getFileName().toString(), source);
+    }
+  }
+
+  private static void report(String name, String source) {
+    int tokens = 0;
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      tokens = scan(source);
+    }
+    long timeBefore = System.nanoTime();
+    for (int i = 0; i < MEASURED_RUNS; ++i) {
+      scan(source);
+    }
+    double seconds = (System.nanoTime() - timeBefore) / 1e9 / MEASURED_RUNS;
+    System.out.printf("%-32s %12d %10.2f %10.1f%n", name, tokens,
+                      seconds * 1e3, source.length() / 1e6 / seconds);
+  }
+
+  private static int scan(String source) {
+    Scanner scanner = new Scanner(source);
+    TokenBuffer tokens = new TokenBuffer(1);
+    int count = 0;
+    while (scanner.scan(tokens, 0) != TokenType.EOF) {
+      ++count;
+    }
+    return count;
+  }
+
+  // Mostly identifiers and keywords, with identifiers that share a prefix or
+  // a first letter with a keyword so the classifier can't bail out early.
+  private static String generate() {
+    String[] names = {"forward", "fun_count", "this_one", "truth", "variable",
+                      "orbit", "nilly", "classy", "printer", "a", "an",
+                      "whiled", "superb", "i", "else_branch", "returned"};
+    StringBuilder builder = new StringBuilder(GENERATED_SIZE + 64);
+    for (int i = 0; builder.length() < GENERATED_SIZE; ++i) {
+      String name = names[i % names.length];
+      String other = names[(i * 7 + 3) % names.length];
+      builder.append("fun ").append(name).append(i % 100).append("(")
+          .append(other).append(") {\n  var ").append(name).append(" = ")
+          .append(other).append(" and true or nil;\n  if (").append(name)
+          .append(") return this; else print ").append(other)
+          .append(";\n}\n");
+    }
+    return builder.toString();
+  }
+}
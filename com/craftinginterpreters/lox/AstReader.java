@@ -0,0 +1,233 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Rebuilds a syntax tree written by `AstWriter`. The tree comes back with
+// the resolver's annotations already in place, so it can run as is.
+class AstReader {
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+  private final DataInputStream in;
+  private String[] strings;
+
+  private AstReader(byte[] bytes) {
+    this.in = new DataInputStream(new ByteArrayInputStream(bytes));
+  }
+
+  // Throws an IOException if the data is truncated, corrupt or was written
+  // by a different version of the format.
+  static List<Stmt> read(byte[] bytes) throws IOException {
+    AstReader reader = new AstReader(bytes);
+    if (reader.in.readInt() != AstWriter.MAGIC ||
+        reader.in.readInt() != AstWriter.FORMAT_VERSION) {
+      throw new IOException("Not a syntax tree of this format version.");
+    }
+    reader.readStrings();
+    List<Stmt> statements = reader.readStatements();
+    if (reader.in.read() != -1) {
+      throw new IOException("Trailing data after syntax tree.");
+    }
+    return statements;
+  }
+
+  private void readStrings() throws IOException {
+    strings = new String[readCount()];
+    for (int i = 0; i < strings.length; ++i) {
+      byte[] utf8 = new byte[readCount()];
+      in.readFully(utf8);
+      strings[i] = new String(utf8, StandardCharsets.UTF_8);
+    }
+  }
+
+  private List<Stmt> readStatements() throws IOException {
+    int count = readCount();
+    List<Stmt> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      statements.add(readRequiredStmt());
+    }
+    return statements;
+  }
+
+  private Stmt readRequiredStmt() throws IOException {
+    Stmt stmt = readStmt();
+    if (stmt == null) {
+      throw new IOException("Missing statement.");
+    }
+    return stmt;
+  }
+
+  private Stmt readStmt() throws IOException {
+    int tag = in.readUnsignedByte();
+    if (tag == AstWriter.NONE)
+      return null;
+    Stmt stmt = readStmt(tag);
+    stmt.line = readInt();
+    return stmt;
+  }
+
+  private Stmt readStmt(int tag) throws IOException {
+    switch (tag) {
+      case AstWriter.BLOCK: {
+        Stmt.Block block = new Stmt.Block(readStatements());
+        block.slotCount = readInt();
+        block.recyclable = readBoolean();
+        return block;
+      }
+      case AstWriter.EXPRESSION:
+        return new Stmt.Expression(readRequiredExpr());
+      case AstWriter.FUNCTION: {
+        Token name = readToken();
+        int paramCount = readCount();
+        List<Token> params = new ArrayList<>(paramCount);
+        for (int i = 0; i < paramCount; ++i) {
+          params.add(readToken());
+        }
+        Stmt.Function function =
+            new Stmt.Function(name, params, readStatements());
+        function.slot = readInt();
+        function.slotCount = readInt();
+        function.recyclable = readBoolean();
+        return function;
+      }
+      case AstWriter.IF: {
+        Expr condition = readRequiredExpr();
+        Stmt thenBranch = readRequiredStmt();
+        return new Stmt.If(condition, thenBranch, readStmt());
+      }
+      case AstWriter.PRINT: return new Stmt.Print(readRequiredExpr());
+      case AstWriter.RETURN: {
+        Stmt.Return returnStmt = new Stmt.Return(readToken(), readExpr());
+        returnStmt.tailCall = readBoolean();
+        return returnStmt;
+      }
+      case AstWriter.VAR: {
+        Stmt.Var var = new Stmt.Var(readToken(), readExpr());
+        var.slot = readInt();
+        var.shadowDepth = readInt();
+        var.shadowSlot = readInt();
+        return var;
+      }
+      case AstWriter.WHILE: {
+        Expr condition = readRequiredExpr();
+        return new Stmt.While(condition, readRequiredStmt());
+      }
+      default: throw new IOException("Unknown statement tag " + tag + ".");
+    }
+  }
+
+  private Expr readRequiredExpr() throws IOException {
+    Expr expr = readExpr();
+    if (expr == null) {
+      throw new IOException("Missing expression.");
+    }
+    return expr;
+  }
+
+  // Java evaluates arguments left to right, so nested reads happen in the
+  // same order `AstWriter` wrote the fields.
+  private Expr readExpr() throws IOException {
+    int tag = in.readUnsignedByte();
+    switch (tag) {
+      case AstWriter.NONE: return null;
+      case AstWriter.ASSIGN: {
+        Expr.Assign assign = new Expr.Assign(readToken(), readRequiredExpr());
+        assign.depth = readInt();
+        assign.slot = readInt();
+        return assign;
+      }
+      case AstWriter.BINARY: {
+        Expr.Binary binary = new Expr.Binary(readRequiredExpr(), readToken(),
+                                             readRequiredExpr());
+        binary.numericLeft = readBoolean();
+        binary.numericRight = readBoolean();
+        return binary;
+      }
+      case AstWriter.CALL: {
+        Expr callee = readRequiredExpr();
+        Token paren = readToken();
+        int argumentCount = readCount();
+        List<Expr> arguments = new ArrayList<>(argumentCount);
+        for (int i = 0; i < argumentCount; ++i) {
+          arguments.add(readRequiredExpr());
+        }
+        return new Expr.Call(callee, paren, arguments);
+      }
+      case AstWriter.GROUPING: return new Expr.Grouping(readRequiredExpr());
+      case AstWriter.LITERAL: return new Expr.Literal(readValue());
+      case AstWriter.LOGICAL:
+        return new Expr.Logical(readRequiredExpr(), readToken(),
+                                readRequiredExpr());
+      case AstWriter.UNARY: {
+        Expr.Unary unary = new Expr.Unary(readToken(), readRequiredExpr());
+        unary.numericRight = readBoolean();
+        return unary;
+      }
+      case AstWriter.VARIABLE: {
+        Expr.Variable variable = new Expr.Variable(readToken());
+        variable.depth = readInt();
+        variable.slot = readInt();
+        return variable;
+      }
+      default: throw new IOException("Unknown expression tag " + tag + ".");
+    }
+  }
+
+  private Token readToken() throws IOException {
+    int type = in.readUnsignedByte();
+    if (type >= TOKEN_TYPES.length) {
+      throw new IOException("Unknown token type " + type + ".");
+    }
+    return new Token(TOKEN_TYPES[type], readString(), null, readInt());
+  }
+
+  private Object readValue() throws IOException {
+    int tag = in.readUnsignedByte();
+    switch (tag) {
+      case AstWriter.NIL: return null;
+      case AstWriter.FALSE: return false;
+      case AstWriter.TRUE: return true;
+      case AstWriter.NUMBER: return in.readDouble();
+      case AstWriter.STRING: return readString();
+      case AstWriter.INTEGER: return (double) readInt();
+      default: throw new IOException("Unknown value tag " + tag + ".");
+    }
+  }
+
+  private String readString() throws IOException {
+    int index = readInt();
+    if (index < 0 || index >= strings.length) {
+      throw new IOException("String index out of range.");
+    }
+    return strings[index];
+  }
+
+  private boolean readBoolean() throws IOException {
+    return in.readUnsignedByte() != 0;
+  }
+
+  // A length, which can't be negative or promise more items than there are
+  // bytes left.
+  private int readCount() throws IOException {
+    int count = readInt();
+    if (count < 0 || count > in.available()) {
+      throw new IOException("Count out of range.");
+    }
+    return count;
+  }
+
+  private int readInt() throws IOException {
+    long bits = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      bits |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0)
+        return (int) (bits - 1);
+    }
+    throw new IOException("Integer too long.");
+  }
+}
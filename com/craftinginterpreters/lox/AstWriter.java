@@ -0,0 +1,332 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Serializes a resolved syntax tree, including everything the resolver
+// recorded on it, so `AstReader` can rebuild a tree that's ready to run.
+//
+// The format is a table of every distinct string, followed by the nodes in
+// prefix order. Each node starts with a tag byte and optional children that
+// are absent are written as a single NONE tag. Integers are written as
+// variable-length unsigned numbers, offset by one so that -1 fits too.
+// Tokens keep only their type, lexeme and line. Literal values only matter to
+// the parser, and live on `Expr.Literal` from then on.
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  static final int MAGIC = 0x4c4f5843; // "LOXC".
+  // Bump this whenever the format, the node types or `TokenType` change.
+  static final int FORMAT_VERSION = 4;
+
+  static final int NONE = 0;
+
+  static final int BLOCK = 1;
+  static final int EXPRESSION = 2;
+  static final int FUNCTION = 3;
+  static final int IF = 4;
+  static final int PRINT = 5;
+  static final int RETURN = 6;
+  static final int VAR = 7;
+  static final int WHILE = 8;
+
+  static final int ASSIGN = 9;
+  static final int BINARY = 10;
+  static final int CALL = 11;
+  static final int GROUPING = 12;
+  static final int LITERAL = 13;
+  static final int LOGICAL = 14;
+  static final int UNARY = 15;
+  static final int VARIABLE = 16;
+
+  // Tags for literal values.
+  static final int NIL = 0;
+  static final int FALSE = 1;
+  static final int TRUE = 2;
+  static final int NUMBER = 3;
+  static final int STRING = 4;
+  // Numbers that are small non-negative integers, which most number literals
+  // in real scripts are, are written as a variable-length integer instead.
+  static final int INTEGER = 5;
+
+  private final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+  private final DataOutputStream out = new DataOutputStream(nodes);
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> stringIndices = new HashMap<>();
+
+  private AstWriter() {}
+
+  static byte[] write(List<Stmt> statements) {
+    AstWriter writer = new AstWriter();
+    writer.writeStatements(statements);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      writeInt(out, writer.strings.size());
+      for (String string : writer.strings) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, utf8.length);
+        out.write(utf8);
+      }
+      writer.nodes.writeTo(out);
+      return bytes.toByteArray();
+    } catch (IOException error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    writeByte(BLOCK);
+    writeStatements(stmt.statements);
+    writeInt(stmt.slotCount);
+    writeBoolean(stmt.recyclable);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    writeByte(EXPRESSION);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    writeByte(FUNCTION);
+    writeToken(stmt.name);
+    writeInt(stmt.params.size());
+    for (Token param : stmt.params) {
+      writeToken(param);
+    }
+    writeStatements(stmt.body);
+    writeInt(stmt.slot);
+    writeInt(stmt.slotCount);
+    writeBoolean(stmt.recyclable);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    writeByte(IF);
+    write(stmt.condition);
+    write(stmt.thenBranch);
+    write(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    writeByte(PRINT);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    writeByte(RETURN);
+    writeToken(stmt.keyword);
+    write(stmt.value);
+    writeBoolean(stmt.tailCall);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    writeByte(VAR);
+    writeToken(stmt.name);
+    write(stmt.initializer);
+    writeInt(stmt.slot);
+    writeInt(stmt.shadowDepth);
+    writeInt(stmt.shadowSlot);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    writeByte(WHILE);
+    write(stmt.condition);
+    write(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    writeByte(ASSIGN);
+    writeToken(expr.name);
+    write(expr.value);
+    writeInt(expr.depth);
+    writeInt(expr.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    writeByte(BINARY);
+    write(expr.left);
+    writeToken(expr.operator);
+    write(expr.right);
+    writeBoolean(expr.numericLeft);
+    writeBoolean(expr.numericRight);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    writeByte(CALL);
+    write(expr.callee);
+    writeToken(expr.paren);
+    writeInt(expr.arguments.size());
+    for (Expr argument : expr.arguments) {
+      write(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    writeByte(GROUPING);
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    writeByte(LITERAL);
+    writeValue(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    writeByte(LOGICAL);
+    write(expr.left);
+    writeToken(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    writeByte(UNARY);
+    writeToken(expr.operator);
+    write(expr.right);
+    writeBoolean(expr.numericRight);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    writeByte(VARIABLE);
+    writeToken(expr.name);
+    writeInt(expr.depth);
+    writeInt(expr.slot);
+    return null;
+  }
+
+  private void writeStatements(List<Stmt> statements) {
+    writeInt(statements.size());
+    for (Stmt statement : statements) {
+      write(statement);
+    }
+  }
+
+  // A statement's line follows the rest of it.
+  private void write(Stmt stmt) {
+    if (stmt == null) {
+      writeByte(NONE);
+    } else {
+      stmt.accept(this);
+      writeInt(stmt.line);
+    }
+  }
+
+  private void write(Expr expr) {
+    if (expr == null) {
+      writeByte(NONE);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  private void writeToken(Token token) {
+    writeByte(token.type.ordinal());
+    writeString(token.lexeme());
+    writeInt(token.line);
+  }
+
+  private void writeValue(Object value) {
+    if (value == null) {
+      writeByte(NIL);
+    } else if (value instanceof Boolean) {
+      writeByte((boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Double && isSmallInteger((double) value)) {
+      writeByte(INTEGER);
+      writeInt((int) (double) value);
+    } else if (value instanceof Double) {
+      writeByte(NUMBER);
+      try {
+        out.writeDouble((double) value);
+      } catch (IOException error) {
+        throw new AssertionError(error);
+      }
+    } else {
+      writeByte(STRING);
+      writeString((String) value);
+    }
+  }
+
+  // Negative zero is excluded because it would come back as positive zero.
+  private static boolean isSmallInteger(double value) {
+    return value >= 0 && value < Integer.MAX_VALUE && value == (int) value &&
+        Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+  }
+
+  private void writeString(String string) {
+    Integer index = stringIndices.get(string);
+    if (index == null) {
+      index = strings.size();
+      strings.add(string);
+      stringIndices.put(string, index);
+    }
+    writeInt(index);
+  }
+
+  private void writeBoolean(boolean value) {
+    writeByte(value ? 1 : 0);
+  }
+
+  private void writeByte(int value) {
+    try {
+      out.writeByte(value);
+    } catch (IOException error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  private void writeInt(int value) {
+    try {
+      writeInt(out, value);
+    } catch (IOException error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  // Seven bits at a time, lowest first. The high bit of each byte says
+  // whether another one follows.
+  private static void writeInt(DataOutputStream out, int value)
+      throws IOException {
+    long bits = (value + 1L) & 0xffffffffL;
+    while (bits >= 0x80) {
+      out.writeByte((int) (bits & 0x7f) | 0x80);
+      bits >>>= 7;
+    }
+    out.writeByte((int) bits);
+  }
+}
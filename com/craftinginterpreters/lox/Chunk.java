@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A sequence of bytecode plus the constants it refers to. Line numbers are
+// kept in a parallel array, one per byte, so runtime errors can still say
+// where they happened.
+class Chunk {
+  byte[] code = new byte[16];
+  int[] lines = new int[16];
+  int count = 0;
+  final List<Object> constants = new ArrayList<>();
+  // Lets identical strings and numbers share a single constant.
+  private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+  void write(int b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+    code[count] = (byte) b;
+    lines[count] = line;
+    ++count;
+  }
+
+  // Returns the index of the constant, or -1 if the pool is full.
+  int addConstant(Object value) {
+    boolean shareable = value instanceof String || value instanceof Double;
+    if (shareable && constantIndices.containsKey(value))
+      return constantIndices.get(value);
+    if (constants.size() > 0xffff)
+      return -1;
+    constants.add(value);
+    if (shareable)
+      constantIndices.put(value, constants.size() - 1);
+    return constants.size() - 1;
+  }
+}
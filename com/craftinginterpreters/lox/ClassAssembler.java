@@ -0,0 +1,379 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes just enough of the JVM class file format for `JitCompiler`: one class
+// with a constant pool and a handful of methods. It emits class file version
+// 49, which predates stack map frames, so the verifier infers types itself
+// and branches need no extra bookkeeping.
+class ClassAssembler {
+  static final int ACONST_NULL = 0x01;
+  static final int ICONST_0 = 0x03;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int LDC2_W = 0x14;
+  static final int ALOAD = 0x19;
+  static final int ASTORE = 0x3a;
+  static final int AALOAD = 0x32;
+  static final int AASTORE = 0x53;
+  static final int POP = 0x57;
+  static final int DUP = 0x59;
+  static final int DADD = 0x63;
+  static final int DSUB = 0x67;
+  static final int DMUL = 0x6b;
+  static final int DNEG = 0x77;
+  static final int IXOR = 0x82;
+  static final int DCMPL = 0x97;
+  static final int DCMPG = 0x98;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFLT = 0x9b;
+  static final int IFGE = 0x9c;
+  static final int IFGT = 0x9d;
+  static final int IFLE = 0x9e;
+  static final int GOTO = 0xa7;
+  static final int ARETURN = 0xb0;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int GETFIELD = 0xb4;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int NEW = 0xbb;
+  static final int ANEWARRAY = 0xbd;
+  static final int CHECKCAST = 0xc0;
+
+  // Thrown when a method outgrows the limits of the class file format. The
+  // caller is expected to give up on compiling it.
+  static class TooLarge extends RuntimeException {
+    TooLarge(String message) {
+      super(message);
+    }
+  }
+
+  // A position in a method's code. Branches to a label that hasn't been
+  // marked yet are patched once it is.
+  static class Label {
+    private int position = -1;
+    // The operand stack depth at the label.
+    private int stack = -1;
+    private final List<Integer> branches = new ArrayList<>();
+  }
+
+  // The body of one method under construction.
+  class Code {
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+    private final int maxLocals;
+
+    Code(int maxLocals) {
+      this.maxLocals = maxLocals;
+    }
+
+    void op(int opcode, int stackDelta) {
+      writeByte(opcode);
+      adjustStack(stackDelta);
+    }
+
+    void aload(int local) {
+      writeByte(ALOAD);
+      writeByte(local);
+      adjustStack(1);
+    }
+
+    void astore(int local) {
+      writeByte(ASTORE);
+      writeByte(local);
+      adjustStack(-1);
+    }
+
+    void pushInt(int value) {
+      if (value >= -1 && value <= 5) {
+        op(ICONST_0 + value, 1);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        writeByte(BIPUSH);
+        writeByte(value);
+        adjustStack(1);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        writeByte(SIPUSH);
+        writeShort(value);
+        adjustStack(1);
+      } else {
+        writeByte(LDC_W);
+        writeShort(intConstant(value));
+        adjustStack(1);
+      }
+    }
+
+    void pushDouble(double value) {
+      writeByte(LDC2_W);
+      writeShort(doubleConstant(value));
+      adjustStack(2);
+    }
+
+    void typeOp(int opcode, String internalName) {
+      writeByte(opcode);
+      writeShort(classRef(internalName));
+      // NEW pushes, ANEWARRAY and CHECKCAST replace the top of the stack.
+      adjustStack(opcode == NEW ? 1 : 0);
+    }
+
+    void getStatic(String owner, String name, String descriptor) {
+      writeByte(GETSTATIC);
+      writeShort(fieldRef(owner, name, descriptor));
+      adjustStack(slots(descriptor));
+    }
+
+    void getField(String owner, String name, String descriptor) {
+      writeByte(GETFIELD);
+      writeShort(fieldRef(owner, name, descriptor));
+      adjustStack(slots(descriptor) - 1);
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor) {
+      writeByte(opcode);
+      writeShort(methodRef(owner, name, descriptor));
+      int close = descriptor.indexOf(')');
+      int delta = slots(descriptor.substring(close + 1)) -
+                  argumentSlots(descriptor.substring(1, close));
+      adjustStack(opcode == INVOKESTATIC ? delta : delta - 1);
+    }
+
+    Label newLabel() {
+      return new Label();
+    }
+
+    // Emits a conditional or unconditional jump. Conditional jumps pop the int
+    // they test.
+    void branch(int opcode, Label label) {
+      int start = length;
+      writeByte(opcode);
+      writeShort(0);
+      adjustStack(opcode == GOTO ? 0 : -1);
+      if (label.position >= 0) {
+        patch(start, label.position);
+      } else {
+        label.branches.add(start);
+        label.stack = stack;
+      }
+    }
+
+    void mark(Label label) {
+      label.position = length;
+      // Code right after a GOTO or return is only reachable by branching to
+      // it, so the stack depth there is whatever the branches left.
+      if (label.stack >= 0) {
+        stack = label.stack;
+      } else {
+        label.stack = stack;
+      }
+      for (int branch : label.branches) {
+        patch(branch, label.position);
+      }
+      label.branches.clear();
+    }
+
+    private void patch(int branch, int target) {
+      int offset = target - branch;
+      if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+        throw new TooLarge("Branch offset out of range.");
+      }
+      bytes[branch + 1] = (byte) (offset >> 8);
+      bytes[branch + 2] = (byte) offset;
+    }
+
+    private void adjustStack(int delta) {
+      stack += delta;
+      maxStack = Math.max(maxStack, stack);
+    }
+
+    private void writeByte(int b) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, length * 2);
+      }
+      bytes[length++] = (byte) b;
+    }
+
+    private void writeShort(int value) {
+      writeByte(value >> 8);
+      writeByte(value);
+    }
+  }
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final DataOutputStream poolOut = new DataOutputStream(pool);
+  private int poolCount = 1;
+  private final Map<String, Integer> poolIndices = new HashMap<>();
+
+  private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+  private final DataOutputStream methodsOut = new DataOutputStream(methods);
+  private int methodCount = 0;
+
+  private final String className;
+  private final String superName;
+
+  ClassAssembler(String className, String superName) {
+    this.className = className;
+    this.superName = superName;
+  }
+
+  Code newCode(int maxLocals) {
+    return new Code(maxLocals);
+  }
+
+  void addMethod(String name, String descriptor, Code code) {
+    if (code.length > 0xffff) {
+      throw new TooLarge("Method code too large.");
+    }
+    try {
+      int codeName = utf8("Code");
+      methodsOut.writeShort(0); // Package-private.
+      methodsOut.writeShort(utf8(name));
+      methodsOut.writeShort(utf8(descriptor));
+      methodsOut.writeShort(1); // One attribute: Code.
+      methodsOut.writeShort(codeName);
+      methodsOut.writeInt(12 + code.length);
+      methodsOut.writeShort(code.maxStack);
+      methodsOut.writeShort(code.maxLocals);
+      methodsOut.writeInt(code.length);
+      methodsOut.write(code.bytes, 0, code.length);
+      methodsOut.writeShort(0); // No exception table.
+      methodsOut.writeShort(0); // No attributes.
+    } catch (IOException error) {
+      throw new AssertionError(error);
+    }
+    ++methodCount;
+  }
+
+  byte[] toByteArray() {
+    int thisClass = classRef(className);
+    int superClass = classRef(superName);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);  // Minor version.
+      out.writeShort(49); // Major version.
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(0x30); // ACC_FINAL | ACC_SUPER.
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // No interfaces.
+      out.writeShort(0); // No fields.
+      out.writeShort(methodCount);
+      methods.writeTo(out);
+      out.writeShort(0); // No attributes.
+      return bytes.toByteArray();
+    } catch (IOException error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  private int utf8(String value) {
+    return constant("U" + value, 1, 1, out -> out.writeUTF(value));
+  }
+
+  private int classRef(String internalName) {
+    int name = utf8(internalName);
+    return constant("C" + internalName, 7, 1, out -> out.writeShort(name));
+  }
+
+  private int nameAndType(String name, String descriptor) {
+    int nameIndex = utf8(name);
+    int descriptorIndex = utf8(descriptor);
+    return constant("N" + name + " " + descriptor, 12, 1, out -> {
+      out.writeShort(nameIndex);
+      out.writeShort(descriptorIndex);
+    });
+  }
+
+  private int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(9, owner, name, descriptor);
+  }
+
+  private int methodRef(String owner, String name, String descriptor) {
+    return memberRef(10, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name,
+                        String descriptor) {
+    int ownerIndex = classRef(owner);
+    int nameAndTypeIndex = nameAndType(name, descriptor);
+    return constant(tag + owner + "." + name + descriptor, tag, 1, out -> {
+      out.writeShort(ownerIndex);
+      out.writeShort(nameAndTypeIndex);
+    });
+  }
+
+  private int intConstant(int value) {
+    return constant("I" + value, 3, 1, out -> out.writeInt(value));
+  }
+
+  private int doubleConstant(double value) {
+    long bits = Double.doubleToRawLongBits(value);
+    return constant("D" + bits, 6, 2, out -> out.writeLong(bits));
+  }
+
+  private interface EntryWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  // Adds an entry to the constant pool unless an identical one is already
+  // there. Longs and doubles take up two pool slots.
+  private int constant(String key, int tag, int size, EntryWriter writer) {
+    Integer index = poolIndices.get(key);
+    if (index != null)
+      return index;
+    if (poolCount + size > 0xffff) {
+      throw new TooLarge("Too many constants.");
+    }
+    try {
+      poolOut.writeByte(tag);
+      writer.write(poolOut);
+    } catch (IOException error) {
+      throw new AssertionError(error);
+    }
+    index = poolCount;
+    poolCount += size;
+    poolIndices.put(key, index);
+    return index;
+  }
+
+  // The number of stack slots a value of this type takes.
+  private static int slots(String descriptor) {
+    switch (descriptor.charAt(0)) {
+      case 'V': return 0;
+      case 'D':
+      case 'J': return 2;
+      default: return 1;
+    }
+  }
+
+  private static int argumentSlots(String descriptors) {
+    int count = 0;
+    for (int i = 0; i < descriptors.length(); ++i) {
+      char c = descriptors.charAt(i);
+      boolean array = false;
+      while (c == '[') {
+        array = true;
+        c = descriptors.charAt(++i);
+      }
+      if (c == 'L') {
+        i = descriptors.indexOf(';', i);
+      }
+      count += (!array && (c == 'D' || c == 'J')) ? 2 : 1;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox;
+
+// The compiled form of a function declaration, or of a whole script. It's
+// a constant in the enclosing chunk; `OpCode.CLOSURE` pairs it with the
+// current environment to make a callable `VmFunction`.
+class CompiledFunction {
+  final String name;
+  final int arity;
+  // Same meaning as the resolver's fields on `Stmt.Function`.
+  final int slotCount;
+  final boolean recyclable;
+  final Chunk chunk = new Chunk();
+
+  CompiledFunction(String name, int arity, int slotCount, boolean recyclable) {
+    this.name = name;
+    this.arity = arity;
+    this.slotCount = slotCount;
+    this.recyclable = recyclable;
+  }
+
+  @Override
+  public String toString() {
+    return name == null ? "<script>" : "<fn " + name + ">";
+  }
+}
@@ -0,0 +1,362 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Compiles a resolved syntax tree into bytecode for the VM. Variables keep
+// the depth and slot the resolver gave them, so the VM uses the same
+// environments as the tree-walking interpreter and closures behave the same
+// way in both engines.
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final CompiledFunction function;
+  // Not every node carries a token. Those use the line of the closest node
+  // before them that does.
+  private int line;
+
+  private Compiler(CompiledFunction function, int line) {
+    this.function = function;
+    this.line = line;
+  }
+
+  // Compiles a whole script into a function that takes no arguments.
+  static CompiledFunction compileScript(List<Stmt> statements) {
+    Compiler compiler =
+        new Compiler(new CompiledFunction(null, 0, 0, false), 1);
+    for (Stmt statement : statements) {
+      compiler.compile(statement);
+    }
+    compiler.emitReturn();
+    return compiler.function;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    // Blocks without declarations share the enclosing scope.
+    if (stmt.slotCount == 0) {
+      for (Stmt statement : stmt.statements) {
+        compile(statement);
+      }
+      return null;
+    }
+    emit(OpCode.ENTER_SCOPE);
+    emitOperand(stmt.slotCount, null);
+    emitByte(stmt.recyclable ? 1 : 0);
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    emit(OpCode.EXIT_SCOPE);
+    emitByte(stmt.recyclable ? 1 : 0);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  // The body is compiled into its own chunk, which becomes a constant of the
+  // enclosing one.
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    line = stmt.name.line;
+    CompiledFunction compiled =
+        new CompiledFunction(stmt.name.lexeme(), stmt.params.size(),
+                             stmt.slotCount, stmt.recyclable);
+    Compiler compiler = new Compiler(compiled, line);
+    for (Stmt statement : stmt.body) {
+      compiler.compile(statement);
+    }
+    compiler.emitReturn();
+
+    line = stmt.name.line;
+    emit(OpCode.CLOSURE);
+    emitShort(makeConstant(compiled));
+    defineVariable(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.condition);
+    int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.thenBranch);
+    int elseJump = emitJump(OpCode.JUMP);
+    patchJump(thenJump);
+    emit(OpCode.POP);
+    if (stmt.elseBranch != null)
+      compile(stmt.elseBranch);
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emit(OpCode.PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    line = stmt.keyword.line;
+    if (stmt.value == null) {
+      emit(OpCode.NIL);
+    } else if (stmt.tailCall) {
+      compileCall((Expr.Call) stmt.value, OpCode.TAIL_CALL);
+      return null;
+    } else {
+      compile(stmt.value);
+    }
+    emit(OpCode.RETURN);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    line = stmt.name.line;
+    if (stmt.slot < 0 && stmt.initializer == null) {
+      emit(OpCode.DECLARE_GLOBAL);
+      emitShort(makeConstant(stmt.name));
+      return null;
+    }
+    if (stmt.initializer == null) {
+      // The VM gets the value from the declaration, the same way the
+      // interpreter does.
+      emit(OpCode.SHADOWED);
+      emitShort(makeConstant(stmt));
+    } else {
+      compile(stmt.initializer);
+    }
+    defineVariable(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = function.chunk.count;
+    compile(stmt.condition);
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emit(OpCode.POP);
+    compile(stmt.body);
+    emitLoop(loopStart);
+    patchJump(exitJump);
+    emit(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    line = expr.name.line;
+    if (expr.depth < 0) {
+      emit(OpCode.SET_GLOBAL);
+      emitShort(makeConstant(expr.name));
+    } else {
+      emit(OpCode.SET_LOCAL);
+      emitLocal(expr.name, expr.depth, expr.slot);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+    line = expr.operator.line;
+    switch (expr.operator.type) {
+      case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+      case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+      case GREATER: emit(OpCode.GREATER); break;
+      case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+      case LESS: emit(OpCode.LESS); break;
+      case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+      case PLUS: emit(OpCode.ADD); break;
+      case MINUS: emit(OpCode.SUBTRACT); break;
+      case STAR: emit(OpCode.MULTIPLY); break;
+      case SLASH: emit(OpCode.DIVIDE); break;
+      default: break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compileCall(expr, OpCode.CALL);
+    return null;
+  }
+
+  private void compileCall(Expr.Call expr, byte opCode) {
+    compile(expr.callee);
+    for (Expr argument : expr.arguments) {
+      compile(argument);
+    }
+    line = expr.paren.line;
+    emit(opCode);
+    emitByte(expr.arguments.size());
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emit(OpCode.NIL);
+    } else if (expr.value.equals(true)) {
+      emit(OpCode.TRUE);
+    } else if (expr.value.equals(false)) {
+      emit(OpCode.FALSE);
+    } else {
+      emit(OpCode.CONSTANT);
+      emitShort(makeConstant(expr.value));
+    }
+    return null;
+  }
+
+  // `and` and `or` short-circuit, so they're compiled as jumps, the same as
+  // the control flow statements.
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+    line = expr.operator.line;
+    if (expr.operator.type == TokenType.AND) {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+      emit(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    } else {
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      int endJump = emitJump(OpCode.JUMP);
+      patchJump(elseJump);
+      emit(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    line = expr.operator.line;
+    switch (expr.operator.type) {
+      case BANG: emit(OpCode.NOT); break;
+      case MINUS: emit(OpCode.NEGATE); break;
+      default: break;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    line = expr.name.line;
+    if (expr.depth < 0) {
+      emit(OpCode.GET_GLOBAL);
+      emitShort(makeConstant(expr.name));
+    } else {
+      emit(OpCode.GET_LOCAL);
+      emitLocal(expr.name, expr.depth, expr.slot);
+      emitShort(makeConstant(expr.name));
+    }
+    return null;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void defineVariable(Token name, int slot) {
+    if (slot < 0) {
+      emit(OpCode.DEFINE_GLOBAL);
+      emitShort(makeConstant(name));
+    } else {
+      emit(OpCode.DEFINE_LOCAL);
+      emitOperand(slot, name);
+    }
+  }
+
+  private void emitLocal(Token name, int depth, int slot) {
+    emitOperand(depth, name);
+    emitOperand(slot, name);
+  }
+
+  // Depths, slots and slot counts each take two bytes. The resolver doesn't
+  // limit them, so the check happens here. `name` is null for a block's slot
+  // count, which reports at the current line.
+  private void emitOperand(int value, Token name) {
+    if (value > 0xffff) {
+      if (name != null) {
+        Lox.error(name, "Too many nested scopes or local variables.");
+      } else {
+        Lox.error(line, "Too many nested scopes or local variables.");
+      }
+    }
+    emitShort(value);
+  }
+
+  // Variable names are stored as their tokens so that the VM can report
+  // runtime errors exactly the way the interpreter does.
+  private int makeConstant(Object value) {
+    int constant = function.chunk.addConstant(value);
+    if (constant < 0) {
+      Lox.error(line, "Too many constants in one chunk.");
+      return 0;
+    }
+    return constant;
+  }
+
+  private void emitReturn() {
+    emit(OpCode.NIL);
+    emit(OpCode.RETURN);
+  }
+
+  // Emits a jump with a placeholder offset and returns where the offset is, so
+  // it can be patched once the target is known.
+  private int emitJump(byte instruction) {
+    emit(instruction);
+    emitByte(0xff);
+    emitByte(0xff);
+    return function.chunk.count - 2;
+  }
+
+  private void patchJump(int offset) {
+    // -2 to adjust for the bytecode for the jump offset itself.
+    int jump = function.chunk.count - offset - 2;
+    if (jump > 0xffff) {
+      Lox.error(line, "Too much code to jump over.");
+    }
+    function.chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+    function.chunk.code[offset + 1] = (byte) (jump & 0xff);
+  }
+
+  private void emitLoop(int loopStart) {
+    emit(OpCode.LOOP);
+    int offset = function.chunk.count - loopStart + 2;
+    if (offset > 0xffff) {
+      Lox.error(line, "Loop body too large.");
+    }
+    emitShort(offset);
+  }
+
+  private void emit(byte instruction) {
+    function.chunk.write(instruction, line);
+  }
+
+  private void emitByte(int b) {
+    function.chunk.write(b, line);
+  }
+
+  private void emitShort(int value) {
+    emitByte((value >> 8) & 0xff);
+    emitByte(value & 0xff);
+  }
+}
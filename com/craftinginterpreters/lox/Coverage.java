@@ -0,0 +1,110 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Counts how many times each line of a script runs, for `--coverage`. A line's
+// count is that of the statement on it that ran most often, so the pieces a
+// `for` loop is desugared into don't add up. Only lines that still hold a
+// statement after optimizing are reported; code the optimizer removed as dead
+// isn't listed at all.
+//
+// The report is in LCOV's tracefile format, which coverage tools read.
+class Coverage implements ExecutionListener, Stmt.Visitor<Void> {
+  private final Map<Stmt, long[]> counts = new IdentityHashMap<>();
+
+  // Registers every statement in the script, so lines that never run are
+  // reported with a count of zero.
+  void register(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      register(statement);
+    }
+  }
+
+  @Override
+  public void enterStatement(Stmt stmt) {
+    long[] count = counts.get(stmt);
+    if (count != null)
+      ++count[0];
+  }
+
+  void write(Path path, Path script) throws IOException {
+    Map<Integer, Long> lines = new TreeMap<>();
+    for (Map.Entry<Stmt, long[]> entry : counts.entrySet()) {
+      lines.merge(entry.getKey().line, entry.getValue()[0], Math::max);
+    }
+    int hit = 0;
+    try (PrintWriter out = new PrintWriter(
+             Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+      out.println("TN:");
+      out.println("SF:" + script.toAbsolutePath());
+      for (Map.Entry<Integer, Long> line : lines.entrySet()) {
+        out.println("DA:" + line.getKey() + "," + line.getValue());
+        if (line.getValue() > 0)
+          ++hit;
+      }
+      out.println("LF:" + lines.size());
+      out.println("LH:" + hit);
+      out.println("end_of_record");
+    }
+  }
+
+  private void register(Stmt stmt) {
+    if (stmt == null)
+      return;
+    counts.put(stmt, new long[1]);
+    stmt.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    register(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    register(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    register(stmt.thenBranch);
+    register(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    register(stmt.body);
+    return null;
+  }
+}
@@ -1,54 +1,94 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
+// A local scope. The resolver has already assigned every local variable a slot
+// in its scope and counted how many scopes lie between each use and its
+// declaration, so lookups are plain array accesses instead of hash probes.
 public class Environment {
-  final Environment enclosing;
-  private final Map<String, Object> values = new HashMap<>();
-  private final Set<String> undefinedVariables = new HashSet<>();
+  // Marks a slot declared with `var a;` that hasn't been assigned yet and has
+  // no outer variable to read through to. Reading it is a runtime error, just
+  // like reading an undefined global.
+  static final Object UNINITIALIZED = new Object();
 
-  Environment() {
-    enclosing = null;
-  }
+  // Not final so that a recycled environment can be re-parented. See
+  // `EnvironmentPool`.
+  Environment enclosing;
+  private final Object[] slots;
 
-  Environment(Environment enclosing) {
+  Environment(Environment enclosing, int slotCount) {
     this.enclosing = enclosing;
+    this.slots = new Object[slotCount];
+    if (Metrics.enabled) {
+      Metrics.environmentsCreated.increment();
+      Metrics.recordDepth(this);
+    }
   }
 
-  Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+  Object getAt(int depth, int slot, Token name) {
+    Object value = ancestor(depth).slots[slot];
+    if (value == UNINITIALIZED) {
+      throw new RuntimeError(name,
+                             "Undefined variable '" + name.lexeme() + "'.");
     }
-    if (enclosing != null)
-      return enclosing.get(name);
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    return value;
   }
 
-  void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-    if (undefinedVariables.contains(name.lexeme)) {
-      values.put(name.lexeme, value);
-      undefinedVariables.remove(name.lexeme);
-      return;
-    }
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
+  // Reads a slot of this environment itself, skipping the walk up the chain.
+  Object getLocal(int slot, Token name) {
+    Object value = slots[slot];
+    if (value == UNINITIALIZED) {
+      throw new RuntimeError(name,
+                             "Undefined variable '" + name.lexeme() + "'.");
     }
-    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    return value;
+  }
+
+  // Reads a slot without checking that it's initialized, for callers that
+  // report the error themselves.
+  Object peekAt(int depth, int slot) {
+    return ancestor(depth).slots[slot];
+  }
+
+  // The value a local declared with `var a;` starts with. Until it's assigned,
+  // it reads as the variable it shadows: the one the resolver found in an
+  // enclosing scope, the local itself if it's being redeclared, or else the
+  // global. A shadowed variable can only change in that window through a
+  // closure, so taking its value now is the same as reading through later.
+  Object shadowedValue(Stmt.Var stmt, GlobalEnvironment globals) {
+    if (stmt.shadowDepth < 0)
+      return globals.peek(stmt.name.symbol);
+    return peekAt(stmt.shadowDepth, stmt.shadowSlot);
   }
 
-  void define(String name, Object value) {
-    values.put(name, value);
+  void assignAt(int depth, int slot, Object value) {
+    ancestor(depth).slots[slot] = value;
   }
 
-  void addUndefinedVariable(String name) {
-    undefinedVariables.add(name);
+  void define(int slot, Object value) {
+    if (Metrics.enabled)
+      Metrics.variablesDefined.increment();
+    slots[slot] = value;
+  }
+
+  int size() {
+    return slots.length;
+  }
+
+  // Drops every reference this environment holds so a pooled environment
+  // doesn't keep dead values reachable.
+  void clear() {
+    enclosing = null;
+    Arrays.fill(slots, null);
+  }
+
+  // Walks a fixed number of hops up the parent chain. Unlike the old name
+  // lookup, there's no need to check each scope along the way.
+  private Environment ancestor(int depth) {
+    Environment environment = this;
+    for (int i = 0; i < depth; ++i) {
+      environment = environment.enclosing;
+    }
+    return environment;
   }
 }
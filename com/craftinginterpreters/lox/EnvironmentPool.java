@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+// Hands out environments for scopes the resolver marked as recyclable, which
+// are scopes that no closure can capture. Once such a scope is exited nothing
+// can refer to its environment anymore, so it's put back and reused the next
+// time a scope of the same size is entered. That's every iteration of a loop
+// body or every call to a leaf function.
+//
+// Each interpreter owns its own pool, so no synchronization is needed.
+class EnvironmentPool {
+  // Scopes with more slots than this are rare and are always allocated.
+  private static final int MAX_SLOTS = 16;
+  // Bounds how many free environments are kept per size. Recursion deeper
+  // than this simply allocates.
+  private static final int MAX_FREE = 64;
+
+  private final Environment[][] free = new Environment[MAX_SLOTS + 1][];
+  private final int[] freeCount = new int[MAX_SLOTS + 1];
+
+  Environment acquire(Environment enclosing, int slotCount) {
+    if (slotCount <= MAX_SLOTS && freeCount[slotCount] > 0) {
+      Environment environment = free[slotCount][--freeCount[slotCount]];
+      environment.enclosing = enclosing;
+      if (Metrics.enabled) {
+        Metrics.environmentsReused.increment();
+        Metrics.recordDepth(environment);
+      }
+      return environment;
+    }
+    return new Environment(enclosing, slotCount);
+  }
+
+  void release(Environment environment) {
+    int slotCount = environment.size();
+    if (slotCount > MAX_SLOTS || freeCount[slotCount] == MAX_FREE)
+      return;
+    environment.clear();
+    if (free[slotCount] == null) {
+      free[slotCount] = new Environment[MAX_FREE];
+    }
+    free[slotCount][freeCount[slotCount]++] = environment;
+  }
+}
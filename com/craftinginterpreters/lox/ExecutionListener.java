@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+// Observes the tree-walking interpreter as it runs. Install one with
+// `Interpreter.addListener()`. With none installed, the interpreter only pays a
+// null check per statement and per call.
+//
+// Every entry is matched by an exit, even when the statement or call ends by
+// returning or throwing. A statement's line is `stmt.line`. A call's line is
+// that of its closing parenthesis.
+//
+// While any listener is installed, functions aren't JIT-compiled, so every
+// statement goes through the interpreter and is seen here.
+interface ExecutionListener {
+  default void enterStatement(Stmt stmt) {}
+
+  default void exitStatement(Stmt stmt) {}
+
+  default void enterCall(LoxCallable callee, Token paren) {}
+
+  default void exitCall(LoxCallable callee, Token paren) {}
+}
@@ -0,0 +1,165 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// A resolved syntax tree stored as a structure of arrays instead of a graph of
+// node objects. `Flattener` builds it and `FlatInterpreter` runs it.
+//
+// Every node is an index. Its kind is `kinds[node]` and its three operands are
+// `operands[3 * node]` through `operands[3 * node + 2]`. Depending on the kind,
+// an operand is a child node, a resolved depth or slot, an index into
+// `constants`, or the start or length of a run of node indices in `lists`.
+// Children come before their parents. A node's line is only needed for error
+// messages, so lines are kept as runs: `lineNodes[i]` is the first node on
+// line `lineNumbers[i]`, and `line()` binary searches them.
+//
+// Names are kept as `Symbol`s in the constant pool, so nothing refers to the
+// scanner's tokens once a tree is flattened.
+class FlatAst {
+  // Expressions. Unless noted, operands are children.
+  static final byte LITERAL = 0;       // constant
+  static final byte GET_LOCAL = 1;     // depth, slot, name constant
+  static final byte GET_GLOBAL = 2;    // name constant
+  static final byte SET_LOCAL = 3;     // value, depth, slot
+  static final byte SET_GLOBAL = 4;    // value, name constant
+  static final byte ADD = 5;           // left, right, numeric flags
+  static final byte SUBTRACT = 6;      // left, right, numeric flags
+  static final byte MULTIPLY = 7;      // left, right, numeric flags
+  static final byte DIVIDE = 8;        // left, right, numeric flags
+  static final byte GREATER = 9;       // left, right, numeric flags
+  static final byte GREATER_EQUAL = 10; // left, right, numeric flags
+  static final byte LESS = 11;         // left, right, numeric flags
+  static final byte LESS_EQUAL = 12;   // left, right, numeric flags
+  static final byte EQUAL = 13;        // left, right
+  static final byte NOT_EQUAL = 14;    // left, right
+  static final byte AND = 15;          // left, right
+  static final byte OR = 16;           // left, right
+  static final byte NOT = 17;          // operand
+  static final byte NEGATE = 18;       // operand, unused, numeric flags
+  static final byte CALL = 19;         // callee, argument list, count
+
+  // Statements.
+  static final byte EXPRESSION = 20;   // expression
+  static final byte PRINT = 21;        // expression
+  static final byte BLOCK = 22;        // list, count, slots << 1 | recyclable
+  static final byte FUNCTION = 23;     // function constant, slot, name constant
+  static final byte IF = 24;           // condition, then, else or -1
+  static final byte RETURN = 25;       // value or -1, 1 if a tail call
+  static final byte VAR_LOCAL = 26;    // initializer, slot, 1 if shadowed
+  static final byte VAR_GLOBAL = 27;   // initializer or -1, name constant
+  static final byte WHILE = 28;        // condition, body
+
+  // Bits of the numeric flags operand: the same as `numericLeft` and
+  // `numericRight` on the tree's nodes.
+  static final int NUMERIC_LEFT = 1;
+  static final int NUMERIC_RIGHT = 2;
+
+  // A function declaration's body and the resolver's facts about it. It's a
+  // constant of the tree it was flattened into.
+  static final class Function {
+    final FlatAst ast;
+    final String name;
+    final int arity;
+    final int slotCount;
+    final boolean recyclable;
+    final int bodyStart;
+    final int bodyCount;
+
+    Function(FlatAst ast, String name, int arity, int slotCount,
+             boolean recyclable, int bodyStart, int bodyCount) {
+      this.ast = ast;
+      this.name = name;
+      this.arity = arity;
+      this.slotCount = slotCount;
+      this.recyclable = recyclable;
+      this.bodyStart = bodyStart;
+      this.bodyCount = bodyCount;
+    }
+
+    @Override
+    public String toString() {
+      return "<fn " + name + ">";
+    }
+  }
+
+  byte[] kinds = new byte[64];
+  int[] operands = new int[3 * 64];
+  int nodeCount = 0;
+  int[] lists = new int[64];
+  int listCount = 0;
+  Object[] constants = new Object[16];
+  int constantCount = 0;
+  private int[] lineNodes = new int[16];
+  private int[] lineNumbers = new int[16];
+  private int lineCount = 0;
+  // The script's top-level statements, as a run in `lists`.
+  int statementsStart;
+  int statementsCount;
+  // Lets equal literals and names share a constant. Dropped once the tree is
+  // built.
+  private Map<Object, Integer> constantIndices = new HashMap<>();
+
+  int addNode(byte kind, int a, int b, int c, int line) {
+    if (nodeCount == kinds.length) {
+      kinds = Arrays.copyOf(kinds, nodeCount * 2);
+      operands = Arrays.copyOf(operands, 3 * nodeCount * 2);
+    }
+    kinds[nodeCount] = kind;
+    operands[3 * nodeCount] = a;
+    operands[3 * nodeCount + 1] = b;
+    operands[3 * nodeCount + 2] = c;
+    if (lineCount == 0 || lineNumbers[lineCount - 1] != line) {
+      if (lineCount == lineNodes.length) {
+        lineNodes = Arrays.copyOf(lineNodes, lineCount * 2);
+        lineNumbers = Arrays.copyOf(lineNumbers, lineCount * 2);
+      }
+      lineNodes[lineCount] = nodeCount;
+      lineNumbers[lineCount] = line;
+      ++lineCount;
+    }
+    return nodeCount++;
+  }
+
+  // Copies a run of node indices into `lists` and returns where it starts.
+  int addList(int[] nodes, int count) {
+    while (listCount + count > lists.length) {
+      lists = Arrays.copyOf(lists, lists.length * 2);
+    }
+    System.arraycopy(nodes, 0, lists, listCount, count);
+    listCount += count;
+    return listCount - count;
+  }
+
+  int addConstant(Object value) {
+    boolean shareable = !(value instanceof Function);
+    if (shareable && constantIndices.containsKey(value))
+      return constantIndices.get(value);
+    if (constantCount == constants.length) {
+      constants = Arrays.copyOf(constants, constantCount * 2);
+    }
+    constants[constantCount] = value;
+    if (shareable)
+      constantIndices.put(value, constantCount);
+    return constantCount++;
+  }
+
+  // Trims every array to its contents.
+  void finish() {
+    kinds = Arrays.copyOf(kinds, nodeCount);
+    operands = Arrays.copyOf(operands, 3 * nodeCount);
+    lists = Arrays.copyOf(lists, listCount);
+    constants = Arrays.copyOf(constants, constantCount);
+    lineNodes = Arrays.copyOf(lineNodes, lineCount);
+    lineNumbers = Arrays.copyOf(lineNumbers, lineCount);
+    constantIndices = null;
+  }
+
+  int line(int node) {
+    int index = Arrays.binarySearch(lineNodes, 0, lineCount, node);
+    if (index < 0)
+      index = -index - 2;
+    return lineNumbers[index];
+  }
+}
@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A flattened function closed over the environment it was declared in. This
+// is `FlatInterpreter`'s counterpart of `LoxFunction`.
+class FlatFunction implements LoxCallable {
+  final FlatAst.Function function;
+  final Environment closure;
+  private final FlatInterpreter interpreter;
+
+  FlatFunction(FlatAst.Function function, Environment closure,
+               FlatInterpreter interpreter) {
+    this.function = function;
+    this.closure = closure;
+    this.interpreter = interpreter;
+  }
+
+  @Override
+  public int arity() {
+    return function.arity;
+  }
+
+  // Only used when Java code calls back into Lox. Calls from Lox code are
+  // handled by `FlatInterpreter` without going through here.
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return this.interpreter.call(this, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return function.toString();
+  }
+}
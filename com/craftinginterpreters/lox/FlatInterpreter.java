@@ -0,0 +1,413 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Runs a `FlatAst`. It walks the tree like `Interpreter` does, but a node is
+// an index into a few arrays rather than an object to dispatch on, so a large
+// script's nodes sit next to each other in memory instead of being scattered
+// across the heap.
+//
+// It uses the same environments as the other engines, and shares the globals
+// and native functions of the `Interpreter` it's made from. A `return`
+// doesn't throw: `execute()` returns true and each enclosing statement stops.
+class FlatInterpreter {
+  private final Interpreter interpreter;
+  private final GlobalEnvironment globals;
+  private final EnvironmentPool environmentPool = new EnvironmentPool();
+  private Environment environment = null;
+  // The arrays of the tree being run. Functions declared on an earlier REPL
+  // line belong to another tree, so calling one switches them for the call.
+  private FlatAst ast = null;
+  private byte[] kinds;
+  private int[] operands;
+  private int[] lists;
+  private Object[] constants;
+  // The value of the `return` that's unwinding, if any.
+  private Object returnValue = null;
+  // A tail call that's unwinding instead, with its arguments already bound.
+  // `invoke()` makes it in place of the call whose body returned it.
+  private FlatFunction tailFunction = null;
+  private Environment tailEnvironment = null;
+  // Calls to flattened functions in progress. See
+  // `Interpreter.maxCallDepth`.
+  private int depth = 0;
+
+  FlatInterpreter(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    this.globals = interpreter.globalEnvironment;
+  }
+
+  void interpret(FlatAst script) {
+    use(script);
+    try {
+      executeList(script.statementsStart, script.statementsCount);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      environment = null;
+    }
+  }
+
+  // Calls a function from Java code, for example on a spawned thread.
+  Object call(FlatFunction function, List<Object> arguments) {
+    Environment callEnvironment = newEnvironment(function);
+    for (int i = 0; i < arguments.size(); ++i) {
+      callEnvironment.define(i, arguments.get(i));
+    }
+    return invoke(function, callEnvironment);
+  }
+
+  private void use(FlatAst ast) {
+    this.ast = ast;
+    kinds = ast.kinds;
+    operands = ast.operands;
+    lists = ast.lists;
+    constants = ast.constants;
+  }
+
+  // Returns true if a `return` ran.
+  private boolean execute(int node) {
+    int at = 3 * node;
+    switch (kinds[node]) {
+      case FlatAst.EXPRESSION:
+        evaluate(operands[at]);
+        return false;
+      case FlatAst.PRINT:
+        System.out.println(Interpreter.stringify(evaluate(operands[at])));
+        return false;
+      case FlatAst.BLOCK: return executeBlock(node);
+      case FlatAst.FUNCTION: {
+        FlatFunction function = new FlatFunction(
+            (FlatAst.Function) constants[operands[at]], environment, this);
+        if (operands[at + 1] < 0) {
+          globals.define((Symbol) constants[operands[at + 2]], function);
+        } else {
+          environment.define(operands[at + 1], function);
+        }
+        return false;
+      }
+      case FlatAst.IF:
+        if (Interpreter.isTruthy(evaluate(operands[at])))
+          return execute(operands[at + 1]);
+        return operands[at + 2] >= 0 && execute(operands[at + 2]);
+      case FlatAst.RETURN:
+        if (operands[at + 1] != 0) {
+          returnValue = call(operands[at], true);
+        } else {
+          returnValue = operands[at] < 0 ? null : evaluate(operands[at]);
+        }
+        return true;
+      case FlatAst.VAR_LOCAL: {
+        Object value = operands[at + 2] != 0 ? peek(operands[at])
+                                             : evaluate(operands[at]);
+        environment.define(operands[at + 1], value);
+        return false;
+      }
+      case FlatAst.VAR_GLOBAL: {
+        Symbol name = (Symbol) constants[operands[at + 1]];
+        if (operands[at] < 0) {
+          globals.addUndefinedVariable(name);
+        } else {
+          globals.define(name, evaluate(operands[at]));
+        }
+        return false;
+      }
+      case FlatAst.WHILE:
+        while (Interpreter.isTruthy(evaluate(operands[at]))) {
+          if (execute(operands[at + 1]))
+            return true;
+        }
+        return false;
+      default:
+        throw new IllegalStateException("Unknown statement " + kinds[node] +
+                                        ".");
+    }
+  }
+
+  private boolean executeList(int start, int count) {
+    for (int i = start; i < start + count; ++i) {
+      if (execute(lists[i]))
+        return true;
+    }
+    return false;
+  }
+
+  // Same as `Interpreter.visitBlockStmt()`.
+  private boolean executeBlock(int node) {
+    int at = 3 * node;
+    int slotCount = operands[at + 2] >> 1;
+    if (slotCount == 0)
+      return executeList(operands[at], operands[at + 1]);
+    boolean recyclable = (operands[at + 2] & 1) != 0;
+    Environment previous = environment;
+    Environment block = recyclable
+                            ? environmentPool.acquire(previous, slotCount)
+                            : new Environment(previous, slotCount);
+    environment = block;
+    try {
+      return executeList(operands[at], operands[at + 1]);
+    } finally {
+      environment = previous;
+      if (recyclable)
+        environmentPool.release(block);
+    }
+  }
+
+  // Reads a variable without checking that it's defined, for a local declared
+  // with `var a;` taking the value of the one it shadows.
+  private Object peek(int node) {
+    int at = 3 * node;
+    if (kinds[node] == FlatAst.GET_LOCAL)
+      return environment.peekAt(operands[at], operands[at + 1]);
+    return globals.peek((Symbol) constants[operands[at]]);
+  }
+
+  private Object evaluate(int node) {
+    int at = 3 * node;
+    switch (kinds[node]) {
+      case FlatAst.LITERAL: return constants[operands[at]];
+      case FlatAst.GET_LOCAL: {
+        Object value = environment.peekAt(operands[at], operands[at + 1]);
+        if (value == Environment.UNINITIALIZED)
+          throw undefined(node, operands[at + 2]);
+        return value;
+      }
+      case FlatAst.GET_GLOBAL: {
+        Object value = globals.peek((Symbol) constants[operands[at]]);
+        if (value == Environment.UNINITIALIZED)
+          throw undefined(node, operands[at]);
+        return value;
+      }
+      case FlatAst.SET_LOCAL: {
+        Object value = evaluate(operands[at]);
+        environment.assignAt(operands[at + 1], operands[at + 2], value);
+        return value;
+      }
+      case FlatAst.SET_GLOBAL: {
+        Object value = evaluate(operands[at]);
+        if (!globals.tryAssign((Symbol) constants[operands[at + 1]], value))
+          throw undefined(node, operands[at + 1]);
+        return value;
+      }
+      case FlatAst.ADD:
+        if (operands[at + 2] == (FlatAst.NUMERIC_LEFT | FlatAst.NUMERIC_RIGHT))
+          return evaluateNumber(node);
+        return add(node, evaluate(operands[at]), evaluate(operands[at + 1]));
+      // These always produce a number, so their whole operand subtree is
+      // evaluated with primitive doubles and only the result is boxed.
+      case FlatAst.SUBTRACT:
+      case FlatAst.MULTIPLY:
+      case FlatAst.DIVIDE:
+      case FlatAst.NEGATE: return evaluateNumber(node);
+      case FlatAst.GREATER:
+      case FlatAst.GREATER_EQUAL:
+      case FlatAst.LESS:
+      case FlatAst.LESS_EQUAL: return compareNumbers(node);
+      case FlatAst.EQUAL:
+        return Interpreter.isEqual(evaluate(operands[at]),
+                                   evaluate(operands[at + 1]));
+      case FlatAst.NOT_EQUAL:
+        return !Interpreter.isEqual(evaluate(operands[at]),
+                                    evaluate(operands[at + 1]));
+      case FlatAst.AND: {
+        Object left = evaluate(operands[at]);
+        return Interpreter.isTruthy(left) ? evaluate(operands[at + 1]) : left;
+      }
+      case FlatAst.OR: {
+        Object left = evaluate(operands[at]);
+        return Interpreter.isTruthy(left) ? left : evaluate(operands[at + 1]);
+      }
+      case FlatAst.NOT: return !Interpreter.isTruthy(evaluate(operands[at]));
+      case FlatAst.CALL: return call(node, false);
+      default:
+        throw new IllegalStateException("Unknown expression " + kinds[node] +
+                                        ".");
+    }
+  }
+
+  // Same as `Interpreter.evaluateDouble()`: operands the resolver marked as
+  // numeric are evaluated unboxed, and the others are checked once both sides
+  // have been evaluated.
+  private double evaluateNumber(int node) {
+    int at = 3 * node;
+    switch (kinds[node]) {
+      case FlatAst.LITERAL: return (double) constants[operands[at]];
+      case FlatAst.NEGATE: {
+        if (operands[at + 2] != 0)
+          return -evaluateNumber(operands[at]);
+        Object right = evaluate(operands[at]);
+        if (!(right instanceof Double))
+          throw error(node, "Operand must be a number.");
+        return -(double) right;
+      }
+      default: break;
+    }
+
+    int flags = operands[at + 2];
+    boolean numericLeft = (flags & FlatAst.NUMERIC_LEFT) != 0;
+    Object boxedLeft = numericLeft ? null : evaluate(operands[at]);
+    double left = numericLeft ? evaluateNumber(operands[at]) : 0;
+    double right = (flags & FlatAst.NUMERIC_RIGHT) != 0
+                       ? evaluateNumber(operands[at + 1])
+                       : toNumber(node, evaluate(operands[at + 1]));
+    if (!numericLeft)
+      left = toNumber(node, boxedLeft);
+
+    switch (kinds[node]) {
+      case FlatAst.SUBTRACT: return left - right;
+      case FlatAst.ADD: return left + right;
+      case FlatAst.DIVIDE:
+        if (right == 0)
+          throw error(node, "Divisor cannot be 0.");
+        return left / right;
+      case FlatAst.MULTIPLY: return left * right;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  private boolean compareNumbers(int node) {
+    int at = 3 * node;
+    int flags = operands[at + 2];
+    boolean numericLeft = (flags & FlatAst.NUMERIC_LEFT) != 0;
+    Object boxedLeft = numericLeft ? null : evaluate(operands[at]);
+    double left = numericLeft ? evaluateNumber(operands[at]) : 0;
+    double right = (flags & FlatAst.NUMERIC_RIGHT) != 0
+                       ? evaluateNumber(operands[at + 1])
+                       : toNumber(node, evaluate(operands[at + 1]));
+    if (!numericLeft)
+      left = toNumber(node, boxedLeft);
+
+    switch (kinds[node]) {
+      case FlatAst.GREATER: return left > right;
+      case FlatAst.GREATER_EQUAL: return left >= right;
+      case FlatAst.LESS: return left < right;
+      case FlatAst.LESS_EQUAL: return left <= right;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  private double toNumber(int node, Object operand) {
+    if (operand instanceof Double)
+      return (double) operand;
+    throw error(node, "Operands must be numbers.");
+  }
+
+  // Same as `Interpreter.genericAdd()`, with the common cases first.
+  private Object add(int node, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double)
+      return (double) left + (double) right;
+    if (left instanceof String && right instanceof String)
+      return (String) left + (String) right;
+    if (left == null || right == null)
+      throw error(node, "Operands must not be nil.");
+    if (left instanceof String || right instanceof String)
+      return Interpreter.stringify(left) + Interpreter.stringify(right);
+    throw error(node, "At lease one operand must be a string.");
+  }
+
+  // A call to a flattened function with the right number of arguments
+  // evaluates them straight into the callee's environment. In tail position
+  // it's then left in `tailFunction` for `invoke()` to make. Anything else
+  // takes the same checks, in the same order, as `Interpreter.call()`.
+  private Object call(int node, boolean tail) {
+    int at = 3 * node;
+    Object callee = evaluate(operands[at]);
+    int start = operands[at + 1];
+    int count = operands[at + 2];
+    if (callee instanceof FlatFunction &&
+        ((FlatFunction) callee).function.arity == count) {
+      FlatFunction function = (FlatFunction) callee;
+      Environment callEnvironment = newEnvironment(function);
+      for (int i = 0; i < count; ++i) {
+        callEnvironment.define(i, evaluate(lists[start + i]));
+      }
+      if (Metrics.enabled)
+        Metrics.functionCalls.increment();
+      if (tail) {
+        tailFunction = function;
+        tailEnvironment = callEnvironment;
+        return null;
+      }
+      if (depth == interpreter.maxCallDepth)
+        throw error(node, "Stack overflow.");
+      try {
+        return invoke(function, callEnvironment);
+      } catch (StackOverflowError error) {
+        // See `Interpreter.invoke()`.
+        throw error(node, "Stack overflow.");
+      }
+    }
+
+    Object[] arguments = new Object[count];
+    for (int i = 0; i < count; ++i) {
+      arguments[i] = evaluate(lists[start + i]);
+    }
+    if (!(callee instanceof LoxCallable))
+      throw error(node, "Can only call functions and classes");
+    LoxCallable function = (LoxCallable) callee;
+    if (count != function.arity()) {
+      throw error(node, "Expected " + function.arity() + " arguments but got " +
+                            count + ".");
+    }
+    if (Metrics.enabled)
+      Metrics.nativeCalls.increment();
+    try {
+      return function.call(interpreter, arguments);
+    } catch (NativeError error) {
+      throw error(node, error.getMessage());
+    }
+  }
+
+  private Environment newEnvironment(FlatFunction function) {
+    FlatAst.Function declaration = function.function;
+    return declaration.recyclable
+        ? environmentPool.acquire(function.closure, declaration.slotCount)
+        : new Environment(function.closure, declaration.slotCount);
+  }
+
+  // Loops for as long as each body ends in a tail call.
+  private Object invoke(FlatFunction function, Environment callEnvironment) {
+    Environment previous = environment;
+    FlatAst previousAst = ast;
+    ++depth;
+    try {
+      for (;;) {
+        FlatAst.Function declaration = function.function;
+        if (declaration.ast != ast)
+          use(declaration.ast);
+        environment = callEnvironment;
+        boolean returned;
+        try {
+          returned =
+              executeList(declaration.bodyStart, declaration.bodyCount);
+        } finally {
+          if (declaration.recyclable)
+            environmentPool.release(callEnvironment);
+        }
+        if (!returned)
+          return null;
+        if (tailFunction == null) {
+          Object value = returnValue;
+          returnValue = null;
+          return value;
+        }
+        function = tailFunction;
+        callEnvironment = tailEnvironment;
+        tailFunction = null;
+        tailEnvironment = null;
+      }
+    } finally {
+      --depth;
+      environment = previous;
+      if (previousAst != null && ast != previousAst)
+        use(previousAst);
+    }
+  }
+
+  private RuntimeError undefined(int node, int name) {
+    return error(node, "Undefined variable '" + constants[name] + "'.");
+  }
+
+  private RuntimeError error(int node, String message) {
+    return new RuntimeError(ast.line(node), message);
+  }
+}
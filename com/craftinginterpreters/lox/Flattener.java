@@ -0,0 +1,208 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Lowers a resolved and optimized syntax tree into a `FlatAst`. Each visit
+// returns the index of the node it added. Groupings add nothing, since their
+// only effect was on parsing. Variables and `var` statements are split by
+// whether the resolver found them in a local scope, so the interpreter never
+// has to check the depth at runtime.
+class Flattener implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+  private final FlatAst ast = new FlatAst();
+  // Not every node carries a token. Those use the line of the closest node
+  // before them that does.
+  private int line = 1;
+
+  private Flattener() {}
+
+  static FlatAst flatten(List<Stmt> statements) {
+    Flattener flattener = new Flattener();
+    FlatAst ast = flattener.ast;
+    ast.statementsStart = flattener.flattenList(statements);
+    ast.statementsCount = ast.listCount - ast.statementsStart;
+    ast.finish();
+    return ast;
+  }
+
+  @Override
+  public Integer visitBlockStmt(Stmt.Block stmt) {
+    int start = flattenList(stmt.statements);
+    return add(stmt, FlatAst.BLOCK, start, ast.listCount - start,
+               stmt.slotCount << 1 | (stmt.recyclable ? 1 : 0));
+  }
+
+  @Override
+  public Integer visitExpressionStmt(Stmt.Expression stmt) {
+    return add(stmt, FlatAst.EXPRESSION, flatten(stmt.expression), 0, 0);
+  }
+
+  // The body becomes a run of `lists` that a constant of the tree points to.
+  @Override
+  public Integer visitFunctionStmt(Stmt.Function stmt) {
+    int start = flattenList(stmt.body);
+    FlatAst.Function function = new FlatAst.Function(
+        ast, stmt.name.lexeme(), stmt.params.size(), stmt.slotCount,
+        stmt.recyclable, start, ast.listCount - start);
+    return add(stmt, FlatAst.FUNCTION, ast.addConstant(function), stmt.slot,
+               ast.addConstant(stmt.name.symbol));
+  }
+
+  @Override
+  public Integer visitIfStmt(Stmt.If stmt) {
+    int condition = flatten(stmt.condition);
+    int thenBranch = flatten(stmt.thenBranch);
+    int elseBranch = stmt.elseBranch == null ? -1 : flatten(stmt.elseBranch);
+    return add(stmt, FlatAst.IF, condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Integer visitPrintStmt(Stmt.Print stmt) {
+    return add(stmt, FlatAst.PRINT, flatten(stmt.expression), 0, 0);
+  }
+
+  @Override
+  public Integer visitReturnStmt(Stmt.Return stmt) {
+    int value = stmt.value == null ? -1 : flatten(stmt.value);
+    return add(stmt, FlatAst.RETURN, value, stmt.tailCall ? 1 : 0, 0);
+  }
+
+  @Override
+  public Integer visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null && stmt.slot >= 0) {
+      // Read the variable the local shadows, without the check for undefined.
+      line = stmt.line;
+      int name = ast.addConstant(stmt.name.symbol);
+      int shadowed =
+          stmt.shadowDepth < 0
+              ? add(FlatAst.GET_GLOBAL, name, 0, 0)
+              : add(FlatAst.GET_LOCAL, stmt.shadowDepth, stmt.shadowSlot, name);
+      return add(stmt, FlatAst.VAR_LOCAL, shadowed, stmt.slot, 1);
+    }
+    int initializer =
+        stmt.initializer == null ? -1 : flatten(stmt.initializer);
+    if (stmt.slot >= 0)
+      return add(stmt, FlatAst.VAR_LOCAL, initializer, stmt.slot, 0);
+    return add(stmt, FlatAst.VAR_GLOBAL, initializer,
+               ast.addConstant(stmt.name.symbol), 0);
+  }
+
+  @Override
+  public Integer visitWhileStmt(Stmt.While stmt) {
+    int condition = flatten(stmt.condition);
+    return add(stmt, FlatAst.WHILE, condition, flatten(stmt.body), 0);
+  }
+
+  @Override
+  public Integer visitAssignExpr(Expr.Assign expr) {
+    int value = flatten(expr.value);
+    line = expr.name.line;
+    if (expr.depth < 0)
+      return add(FlatAst.SET_GLOBAL, value, ast.addConstant(expr.name.symbol),
+                 0);
+    return add(FlatAst.SET_LOCAL, value, expr.depth, expr.slot);
+  }
+
+  @Override
+  public Integer visitBinaryExpr(Expr.Binary expr) {
+    int left = flatten(expr.left);
+    int right = flatten(expr.right);
+    line = expr.operator.line;
+    int flags = (expr.numericLeft ? FlatAst.NUMERIC_LEFT : 0) |
+                (expr.numericRight ? FlatAst.NUMERIC_RIGHT : 0);
+    byte kind;
+    switch (expr.operator.type) {
+      case BANG_EQUAL: kind = FlatAst.NOT_EQUAL; break;
+      case EQUAL_EQUAL: kind = FlatAst.EQUAL; break;
+      case GREATER: kind = FlatAst.GREATER; break;
+      case GREATER_EQUAL: kind = FlatAst.GREATER_EQUAL; break;
+      case LESS: kind = FlatAst.LESS; break;
+      case LESS_EQUAL: kind = FlatAst.LESS_EQUAL; break;
+      case PLUS: kind = FlatAst.ADD; break;
+      case MINUS: kind = FlatAst.SUBTRACT; break;
+      case STAR: kind = FlatAst.MULTIPLY; break;
+      case SLASH: kind = FlatAst.DIVIDE; break;
+      default: throw new IllegalStateException();
+    }
+    return add(kind, left, right, flags);
+  }
+
+  @Override
+  public Integer visitCallExpr(Expr.Call expr) {
+    int callee = flatten(expr.callee);
+    int[] arguments = new int[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; ++i) {
+      arguments[i] = flatten(expr.arguments.get(i));
+    }
+    line = expr.paren.line;
+    return add(FlatAst.CALL, callee, ast.addList(arguments, arguments.length),
+               arguments.length);
+  }
+
+  @Override
+  public Integer visitGroupingExpr(Expr.Grouping expr) {
+    return flatten(expr.expression);
+  }
+
+  @Override
+  public Integer visitLiteralExpr(Expr.Literal expr) {
+    return add(FlatAst.LITERAL, ast.addConstant(expr.value), 0, 0);
+  }
+
+  @Override
+  public Integer visitLogicalExpr(Expr.Logical expr) {
+    int left = flatten(expr.left);
+    int right = flatten(expr.right);
+    line = expr.operator.line;
+    byte kind =
+        expr.operator.type == TokenType.AND ? FlatAst.AND : FlatAst.OR;
+    return add(kind, left, right, 0);
+  }
+
+  @Override
+  public Integer visitUnaryExpr(Expr.Unary expr) {
+    int right = flatten(expr.right);
+    line = expr.operator.line;
+    if (expr.operator.type == TokenType.BANG)
+      return add(FlatAst.NOT, right, 0, 0);
+    return add(FlatAst.NEGATE, right, 0,
+               expr.numericRight ? FlatAst.NUMERIC_RIGHT : 0);
+  }
+
+  @Override
+  public Integer visitVariableExpr(Expr.Variable expr) {
+    line = expr.name.line;
+    int name = ast.addConstant(expr.name.symbol);
+    if (expr.depth < 0)
+      return add(FlatAst.GET_GLOBAL, name, 0, 0);
+    return add(FlatAst.GET_LOCAL, expr.depth, expr.slot, name);
+  }
+
+  // Flattens each statement, then adds the run of their nodes to `lists` and
+  // returns where it starts.
+  private int flattenList(List<Stmt> statements) {
+    int[] nodes = new int[statements.size()];
+    int count = 0;
+    for (Stmt statement : statements) {
+      if (statement != null)
+        nodes[count++] = flatten(statement);
+    }
+    return ast.addList(nodes, count);
+  }
+
+  private int flatten(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private int flatten(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private int add(Stmt stmt, byte kind, int a, int b, int c) {
+    line = stmt.line;
+    return add(kind, a, b, c);
+  }
+
+  private int add(byte kind, int a, int b, int c) {
+    return ast.addNode(kind, a, b, c, line);
+  }
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Globals are late bound in Lox: a function body may refer to a global that is
+// declared after it. The resolver leaves those names unresolved, so they're
+// still looked up by name here, by their interned `Symbol`'s id.
+//
+// Spawned threads share the globals, and most accesses are reads, so reads
+// never lock. Each global lives in a `Cell` with a volatile value, found by
+// indexing a copy-on-write array with the symbol id. Reading or assigning an
+// existing global is a volatile read or write of its cell. Only the first
+// declaration of a global takes the lock, to publish a new array with the new
+// cell in it.
+public class GlobalEnvironment {
+  private static final class Cell {
+    // `Environment.UNINITIALIZED` while the global is declared with `var a;`
+    // and hasn't been assigned yet.
+    volatile Object value;
+
+    Cell(Object value) {
+      this.value = value;
+    }
+  }
+
+  private volatile Cell[] cells = new Cell[64];
+
+  Object get(Token name) {
+    Object value = peek(name.symbol);
+    if (value != Environment.UNINITIALIZED)
+      return value;
+    throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
+  }
+
+  // Returns `Environment.UNINITIALIZED` if the global doesn't exist or has no
+  // value yet, for callers that report the error themselves.
+  Object peek(Symbol name) {
+    Cell cell = cell(name);
+    return cell == null ? Environment.UNINITIALIZED : cell.value;
+  }
+
+  // Assigning a declared global defines it, whether or not it has a value yet.
+  void assign(Token name, Object value) {
+    if (!tryAssign(name.symbol, value)) {
+      throw new RuntimeError(name,
+                             "Undefined variable '" + name.lexeme() + "'.");
+    }
+  }
+
+  // Returns false if the global hasn't been declared.
+  boolean tryAssign(Symbol name, Object value) {
+    Cell cell = cell(name);
+    if (cell == null)
+      return false;
+    cell.value = value;
+    return true;
+  }
+
+  void define(Symbol name, Object value) {
+    if (Metrics.enabled)
+      Metrics.variablesDefined.increment();
+    Cell cell = cell(name);
+    if (cell == null)
+      cell = addCell(name, value);
+    cell.value = value;
+  }
+
+  // Declares a global without a value. Redeclaring one that already has a
+  // value keeps it.
+  void addUndefinedVariable(Symbol name) {
+    if (Metrics.enabled)
+      Metrics.variablesDefined.increment();
+    if (cell(name) == null)
+      addCell(name, Environment.UNINITIALIZED);
+  }
+
+  private Cell cell(Symbol name) {
+    Cell[] cells = this.cells;
+    return name.id < cells.length ? cells[name.id] : null;
+  }
+
+  // Another thread may have added the cell since the caller looked, so check
+  // again under the lock.
+  private synchronized Cell addCell(Symbol name, Object value) {
+    Cell[] cells = this.cells;
+    if (name.id < cells.length && cells[name.id] != null)
+      return cells[name.id];
+    int length = name.id < cells.length
+                     ? cells.length
+                     : Math.max(cells.length * 2, name.id + 1);
+    Cell[] copy = Arrays.copyOf(cells, length);
+    Cell cell = new Cell(value);
+    copy[name.id] = cell;
+    this.cells = copy;
+    return cell;
+  }
+}
@@ -2,18 +2,73 @@ package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-  // A fixed reference to the outermost global environment.
-  final Environment globalEnvironment = new Environment();
+  // A fixed reference to the outermost global environment. Interpreters
+  // running spawned threads share it with the interpreter that spawned them.
+  final GlobalEnvironment globalEnvironment;
+  // Threads started with `spawn()` that haven't been joined yet, shared by
+  // every interpreter of the program.
+  final Set<LoxThread> threads;
   // The `environment` field in the interpreter changes as we enter and exit
-  // local scopes. It tracks the current environment.
-  private Environment environment = globalEnvironment;
+  // local scopes. It tracks the current environment, and is null while we're
+  // executing top-level code.
+  private Environment environment = null;
+  // Recycles the environments of scopes that can't be captured by a closure.
+  final EnvironmentPool environmentPool = new EnvironmentPool();
+  // How many calls a function gets before its body is compiled to JVM
+  // bytecode. Negative disables the JIT.
+  int jitThreshold = -1;
+  // How many calls to Lox functions can be in progress at once on a thread.
+  // Tail calls don't count, since each one replaces the call that made it.
+  // Going deeper is a runtime error instead of a `StackOverflowError`.
+  static final int DEFAULT_MAX_CALL_DEPTH = 10_000;
+  int maxCallDepth = DEFAULT_MAX_CALL_DEPTH;
+  private int callDepth = 0;
+  // Java stack to give a thread that runs Lox code, so it reaches
+  // `maxCallDepth` before the JVM's limit. A tree-walking call takes one or
+  // two kilobytes of it. The rest is headroom for deeply nested expressions.
+  // The stack is reserved up front, and a much bigger reservation can fail
+  // to start the thread at all, so very deep limits are capped.
+  private static final long STACK_BYTES_PER_CALL = 8 * 1024;
+  private static final long MAX_STACK_BYTES = 1L << 30;
+  // Observers installed with `addListener()`. `listener` is null when there
+  // are none, the listener itself when there's one, and a fan-out to all of
+  // them otherwise, so the hot paths only ever test one field.
+  private final List<ExecutionListener> listeners = new ArrayList<>();
+  ExecutionListener listener = null;
 
   Interpreter() {
+    globalEnvironment = new GlobalEnvironment();
+    threads = ConcurrentHashMap.newKeySet();
+    defineNatives();
+  }
+
+  // An interpreter for a spawned thread. Everything that changes as code runs
+  // is its own; only the globals are shared. Listeners aren't inherited, since
+  // they assume a single thread.
+  private Interpreter(Interpreter parent) {
+    globalEnvironment = parent.globalEnvironment;
+    threads = parent.threads;
+    jitThreshold = parent.jitThreshold;
+    maxCallDepth = parent.maxCallDepth;
+  }
+
+  Interpreter forThread() {
+    return new Interpreter(this);
+  }
+
+  long stackSize() {
+    return Math.min((1 << 20) + maxCallDepth * STACK_BYTES_PER_CALL,
+                    MAX_STACK_BYTES);
+  }
+
+  private void defineNatives() {
     // Defines a variable `clock`. Its value is a Java anonymous class that
     // implements LoxCallable.
-    globalEnvironment.define("clock", new LoxCallable() {
+    globalEnvironment.define(Symbol.intern("clock"), new LoxCallable() {
       @Override
       public int arity() {
         return 0;
@@ -29,17 +84,111 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return "<native fn>";
       }
     });
+
+    // `spawn(fn)` runs a function that takes no arguments on a new thread and
+    // returns a handle to it. See `LoxThread`.
+    globalEnvironment.define(Symbol.intern("spawn"), new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        Object function = arguments.get(0);
+        if (!(function instanceof LoxCallable) ||
+            ((LoxCallable) function).arity() != 0) {
+          throw new NativeError(
+              "Can only spawn a function that takes no arguments.");
+        }
+        return LoxThread.spawn(interpreter, (LoxCallable) function);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+
+    // `join(handle)` waits for a spawned function and returns its result.
+    globalEnvironment.define(Symbol.intern("join"), new LoxCallable() {
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof LoxThread)) {
+          throw new NativeError("Can only join a thread.");
+        }
+        return ((LoxThread) arguments.get(0)).join();
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
   }
 
-  void interpret(Expr expression) {
-    try {
-      Object value = evaluate(expression);
-      System.out.println(stringify(value));
-    } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+  // Waits for every spawned thread that's still outstanding, including ones
+  // started while waiting, and reports the errors nobody joined to see.
+  void awaitThreads() {
+    while (!threads.isEmpty()) {
+      for (LoxThread thread : threads) {
+        RuntimeError error = thread.await();
+        threads.remove(thread);
+        if (error != null)
+          Lox.runtimeError(error);
+      }
     }
   }
 
+  void addListener(ExecutionListener added) {
+    listeners.add(added);
+    updateListener();
+  }
+
+  void removeListener(ExecutionListener removed) {
+    listeners.remove(removed);
+    updateListener();
+  }
+
+  private void updateListener() {
+    if (listeners.size() <= 1) {
+      listener = listeners.isEmpty() ? null : listeners.get(0);
+      return;
+    }
+    // Exits are reported in the reverse order of entries, so listeners nest.
+    ExecutionListener[] all = listeners.toArray(new ExecutionListener[0]);
+    listener = new ExecutionListener() {
+      @Override
+      public void enterStatement(Stmt stmt) {
+        for (ExecutionListener each : all)
+          each.enterStatement(stmt);
+      }
+
+      @Override
+      public void exitStatement(Stmt stmt) {
+        for (int i = all.length - 1; i >= 0; --i)
+          all[i].exitStatement(stmt);
+      }
+
+      @Override
+      public void enterCall(LoxCallable callee, Token paren) {
+        for (ExecutionListener each : all)
+          each.enterCall(callee, paren);
+      }
+
+      @Override
+      public void exitCall(LoxCallable callee, Token paren) {
+        for (int i = all.length - 1; i >= 0; --i)
+          all[i].exitCall(callee, paren);
+      }
+    };
+  }
+
   void interpret(List<Stmt> statements) {
     try {
       for (Stmt statement : statements) {
@@ -53,78 +202,140 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
-    environment.assign(expr.name, value);
+    if (expr.depth < 0) {
+      globalEnvironment.assign(expr.name, value);
+    } else {
+      environment.assignAt(expr.depth, expr.slot, value);
+    }
     return value;
   }
 
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
-    Object left = evaluate(expr.left);
-    Object right = evaluate(expr.right);
-
     switch (expr.operator.type) {
+      // These always produce a number, so their whole operand subtree is
+      // evaluated with primitive doubles and only the result is boxed.
+      case MINUS:
+      case SLASH:
+      case STAR: return evaluateDouble(expr);
+      case PLUS:
+        if (expr.numericLeft && expr.numericRight)
+          return evaluateDouble(expr);
+        return add(expr);
       case GREATER:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left > (double) right;
       case GREATER_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left >= (double) right;
       case LESS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left < (double) right;
-      case LESS_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left <= (double) right;
-      case MINUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left - (double) right;
-      case PLUS:
-        if (left == null || right == null) {
-          throw new RuntimeError(expr.operator, "Operands must not be nil.");
-        }
-        if (left instanceof Double && right instanceof Double) {
-          return (double) left + (double) right;
-        }
-        if (left instanceof String || right instanceof String) {
-          return stringify(left) + stringify(right);
-        }
-        throw new RuntimeError(expr.operator,
-                               "At lease one operand must be a string.");
-      case SLASH:
-        checkNumberOperands(expr.operator, left, right);
-        if ((double) right == 0) {
-          throw new RuntimeError(expr.operator, "Divisor cannot be 0.");
-        }
-        return (double) left / (double) right;
-      case STAR:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left * (double) right;
+      case LESS_EQUAL: return compareNumbers(expr);
+      default: break;
+    }
+
+    Object left = evaluate(expr.left);
+    Object right = evaluate(expr.right);
+
+    switch (expr.operator.type) {
       case BANG_EQUAL: return !isEqual(left, right);
       case EQUAL_EQUAL: return isEqual(left, right);
       default: return null;
     }
   }
 
+  // A call site remembers the last callee that passed the checks in
+  // `checkCallable()`. A callable's arity never changes, so while the site
+  // keeps calling the same one the checks are skipped. The arguments array
+  // is new each time rather than kept on the node, since evaluating the
+  // arguments can recurse back into this same call, and other threads may be
+  // running it too.
   @Override
   public Object visitCallExpr(Expr.Call expr) {
+    return call(expr, false);
+  }
+
+  // A tail call to a Lox function isn't made here. It's returned as a
+  // `TailCall` for the `LoxFunction.call()` running the current body to make.
+  private Object call(Expr.Call expr, boolean tail) {
     Object callee = evaluate(expr.callee);
-    List<Object> arguments = new ArrayList<>();
-    for (Expr argument : expr.arguments) {
-      arguments.add(evaluate(argument));
+    List<Expr> argumentExprs = expr.arguments;
+    Object[] arguments = new Object[argumentExprs.size()];
+    for (int i = 0; i < arguments.length; ++i) {
+      arguments[i] = evaluate(argumentExprs.get(i));
     }
+    LoxCallable function = expr.cachedCallee;
+    if (function == null || callee != function) {
+      function = checkCallable(expr.paren, callee, arguments.length);
+      expr.cachedCallee = function;
+    }
+    if (tail && function instanceof LoxFunction)
+      return new TailCall((LoxFunction) function, arguments);
+    return invoke(expr.paren, function, arguments);
+  }
+
+  // Checks that `callee` can be called with these arguments and calls it.
+  // Shared with code compiled by `JitCompiler`.
+  Object call(Token paren, Object callee, Object[] arguments) {
+    return invoke(paren, checkCallable(paren, callee, arguments.length),
+                  arguments);
+  }
+
+  // The same for a call in tail position. See `call(Expr.Call, boolean)`.
+  Object tailCall(Token paren, Object callee, Object[] arguments) {
+    LoxCallable function = checkCallable(paren, callee, arguments.length);
+    if (function instanceof LoxFunction && listener == null)
+      return new TailCall((LoxFunction) function, arguments);
+    return invoke(paren, function, arguments);
+  }
+
+  private LoxCallable checkCallable(Token paren, Object callee,
+                                    int argumentCount) {
     // Strings aren't callable in Lox. The runtime representation of a Lox
     // string is a Java string, so when we cast that to `LoxCallable`, the JVM
     // will throw a `ClassCastException`.
     if (!(callee instanceof LoxCallable)) {
-      throw new RuntimeError(expr.paren, "Can only call functions and classes");
+      throw new RuntimeError(paren, "Can only call functions and classes");
     }
     LoxCallable function = (LoxCallable) callee;
-    if (arguments.size() != function.arity()) {
-      throw new RuntimeError(expr.paren, "Expected " + function.arity() +
-                                             " arguments but got " +
-                                             arguments.size() + ".");
+    if (argumentCount != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() +
+                                        " arguments but got " +
+                                        argumentCount + ".");
+    }
+    return function;
+  }
+
+  private Object invoke(Token paren, LoxCallable function,
+                        Object[] arguments) {
+    boolean loxFunction = function instanceof LoxFunction;
+    if (loxFunction) {
+      if (callDepth == maxCallDepth)
+        throw new RuntimeError(paren, "Stack overflow.");
+      ++callDepth;
+    }
+    if (Metrics.enabled) {
+      if (loxFunction) {
+        Metrics.functionCalls.increment();
+      } else {
+        Metrics.nativeCalls.increment();
+      }
+    }
+    try {
+      if (listener == null)
+        return function.call(this, arguments);
+      ExecutionListener listener = this.listener;
+      listener.enterCall(function, paren);
+      try {
+        return function.call(this, arguments);
+      } finally {
+        listener.exitCall(function, paren);
+      }
+    } catch (NativeError error) {
+      throw new RuntimeError(paren, error.getMessage());
+    } catch (StackOverflowError error) {
+      // Java's stack ran out before `maxCallDepth` did, which takes a thread
+      // that wasn't given `stackSize()` or very deeply nested expressions.
+      throw new RuntimeError(paren, "Stack overflow.");
+    } finally {
+      if (loxFunction)
+        --callDepth;
     }
-    return function.call(this, arguments);
   }
 
   @Override
@@ -140,11 +351,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitLogicalExpr(Expr.Logical expr) {
     Object left = evaluate(expr.left);
+    boolean truthy;
+    if (expr.specialization == Specialization.BOOLEAN &&
+        left instanceof Boolean) {
+      truthy = (boolean) left;
+    } else {
+      if (expr.specialization != Specialization.GENERIC)
+        expr.specialization = specializeTruthiness(expr.specialization, left);
+      truthy = isTruthy(left);
+    }
     if (expr.operator.type == TokenType.OR) {
-      if (isTruthy(left))
+      if (truthy)
         return left;
     } else {
-      if (!isTruthy(left))
+      if (!truthy)
         return left;
     }
     return evaluate(expr.right);
@@ -152,27 +372,66 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
+    if (expr.operator.type == TokenType.MINUS)
+      return evaluateDouble(expr);
+
     Object right = evaluate(expr.right);
 
     switch (expr.operator.type) {
-      case BANG: return !isTruthy(right);
-      case MINUS:
-        checkNumberOperand(expr.operator, right);
-        return -(double) right;
+      case BANG:
+        if (expr.specialization == Specialization.BOOLEAN &&
+            right instanceof Boolean)
+          return !(boolean) right;
+        if (expr.specialization != Specialization.GENERIC)
+          expr.specialization =
+              specializeTruthiness(expr.specialization, right);
+        return !isTruthy(right);
       default: return null;
     }
   }
 
+  // A variable's scope never changes, so the node rewrites itself once, on its
+  // first read, and never falls back.
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return environment.get(expr.name);
+    switch (expr.specialization) {
+      case LOCAL_SLOT_READ: return environment.getLocal(expr.slot, expr.name);
+      case ENCLOSING_SLOT_READ:
+        return environment.getAt(expr.depth, expr.slot, expr.name);
+      case GLOBAL_READ: return globalEnvironment.get(expr.name);
+      default:
+        expr.specialization = expr.depth < 0    ? Specialization.GLOBAL_READ
+                              : expr.depth == 0 ? Specialization.LOCAL_SLOT_READ
+                                  : Specialization.ENCLOSING_SLOT_READ;
+        return visitVariableExpr(expr);
+    }
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    // To execute a block, we create a new environment for the block's scope and
-    // pass it off to this other method.
-    executeBlock(stmt.statements, new Environment(environment));
+    // A block with no declarations shares the enclosing scope, so there's no
+    // environment to create.
+    if (stmt.slotCount == 0) {
+      for (Stmt statement : stmt.statements) {
+        execute(statement);
+      }
+      return null;
+    }
+    // Otherwise, we create a new environment for the block's scope and pass it
+    // off to this other method. If nothing can capture the environment, it
+    // goes back to the pool once the block is done.
+    if (!stmt.recyclable) {
+      executeBlock(stmt.statements,
+                   new Environment(environment, stmt.slotCount));
+      return null;
+    }
+    Environment blockEnvironment =
+        environmentPool.acquire(environment, stmt.slotCount);
+    try {
+      executeBlock(stmt.statements, blockEnvironment);
+    } finally {
+      environmentPool.release(blockEnvironment);
+    }
     return null;
   }
 
@@ -182,11 +441,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  // Captures the current environment as the function's closure, then binds
+  // the function to its name the same way a `var` would.
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    LoxFunction function = new LoxFunction(stmt, environment);
+    if (stmt.slot < 0) {
+      globalEnvironment.define(stmt.name.symbol, function);
+    } else {
+      environment.define(stmt.slot, function);
+    }
+    return null;
+  }
+
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.condition))) {
       execute(stmt.thenBranch);
-    } else {
+    } else if (stmt.elseBranch != null) {
       execute(stmt.elseBranch);
     }
     return null;
@@ -199,16 +471,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
-  // If there isn't an initializer, we set the value to `null`, which is the
-  // Java representation of Lox's `nil` value. Then we tell the environment to
-  // bind the variable to that value.
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    // Listeners expect every call to enter and exit, so they don't get tail
+    // calls.
+    if (stmt.tailCall && listener == null)
+      throw new Return(call((Expr.Call) stmt.value, true));
+    Object value = stmt.value == null ? null : evaluate(stmt.value);
+    throw new Return(value);
+  }
+
+  // Locals go in the slot the resolver picked for them. One without an
+  // initializer starts out as the variable it shadows. Globals are still bound
+  // by name, and one without an initializer stays undefined until it's
+  // assigned.
   @Override
   public Void visitVarStmt(Stmt.Var stmt) {
-    if (stmt.initializer == null) {
-      environment.addUndefinedVariable(stmt.name.lexeme);
-    } else {
+    if (stmt.initializer != null) {
       Object value = evaluate(stmt.initializer);
-      environment.define(stmt.name.lexeme, value);
+      if (stmt.slot >= 0) {
+        environment.define(stmt.slot, value);
+      } else {
+        globalEnvironment.define(stmt.name.symbol, value);
+      }
+    } else if (stmt.slot >= 0) {
+      environment.define(stmt.slot,
+                         environment.shadowedValue(stmt, globalEnvironment));
+    } else {
+      globalEnvironment.addUndefinedVariable(stmt.name.symbol);
     }
     return null;
   }
@@ -221,21 +511,131 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
-  private void checkNumberOperand(Token operator, Object operand) {
-    if (operand instanceof Double)
-      return;
-    throw new RuntimeError(operator, "Operand must be a number.");
+  // `+` is the only binary operator whose behavior depends on its operand
+  // types, so it specializes on the first pair of operands it sees.
+  private Object add(Expr.Binary expr) {
+    Object left = evaluate(expr.left);
+    Object right = evaluate(expr.right);
+
+    switch (expr.specialization) {
+      case NUMBER_ADD:
+        if (left instanceof Double && right instanceof Double)
+          return (double) left + (double) right;
+        break;
+      case STRING_CONCAT:
+        if (left instanceof String && right instanceof String)
+          return (String) left + (String) right;
+        break;
+      case GENERIC: return genericAdd(expr.operator, left, right);
+      default: break;
+    }
+
+    if (expr.specialization != Specialization.UNINITIALIZED) {
+      expr.specialization = Specialization.GENERIC;
+    } else if (left instanceof Double && right instanceof Double) {
+      expr.specialization = Specialization.NUMBER_ADD;
+    } else if (left instanceof String && right instanceof String) {
+      expr.specialization = Specialization.STRING_CONCAT;
+    } else {
+      expr.specialization = Specialization.GENERIC;
+    }
+    return genericAdd(expr.operator, left, right);
   }
 
-  private void checkNumberOperands(Token operator, Object left, Object right) {
-    if (left instanceof Double && right instanceof Double)
-      return;
+  static Object genericAdd(Token operator, Object left, Object right) {
+    if (left == null || right == null) {
+      throw new RuntimeError(operator, "Operands must not be nil.");
+    }
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+    if (left instanceof String || right instanceof String) {
+      return stringify(left) + stringify(right);
+    }
+    throw new RuntimeError(operator, "At lease one operand must be a string.");
+  }
+
+  // The next state of a `!`, `and` or `or` node after its operand evaluated to
+  // something other than what its current state expects. Nodes whose operand
+  // has only ever been a Boolean skip the nil check in `isTruthy()`.
+  private static Specialization specializeTruthiness(Specialization current,
+                                                     Object operand) {
+    if (current == Specialization.UNINITIALIZED && operand instanceof Boolean)
+      return Specialization.BOOLEAN;
+    return Specialization.GENERIC;
+  }
+
+  // Evaluates an expression that `Resolver.isNumber()` accepted, keeping the
+  // result in a primitive. Operands that aren't known to be numbers are
+  // evaluated normally and checked once both sides have been evaluated, so
+  // errors and side effects happen in the same order as on the boxed path.
+  private double evaluateDouble(Expr expr) {
+    if (expr instanceof Expr.Literal)
+      return (double) ((Expr.Literal) expr).value;
+    if (expr instanceof Expr.Grouping)
+      return evaluateDouble(((Expr.Grouping) expr).expression);
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      if (unary.numericRight)
+        return -evaluateDouble(unary.right);
+      Object right = evaluate(unary.right);
+      if (!(right instanceof Double)) {
+        throw new RuntimeError(unary.operator, "Operand must be a number.");
+      }
+      return -(double) right;
+    }
+
+    Expr.Binary binary = (Expr.Binary) expr;
+    Object boxedLeft = binary.numericLeft ? null : evaluate(binary.left);
+    double left = binary.numericLeft ? evaluateDouble(binary.left) : 0;
+    double right = binary.numericRight
+                       ? evaluateDouble(binary.right)
+                       : toNumber(binary.operator, evaluate(binary.right));
+    if (!binary.numericLeft)
+      left = toNumber(binary.operator, boxedLeft);
+
+    switch (binary.operator.type) {
+      case MINUS: return left - right;
+      case PLUS: return left + right;
+      case SLASH:
+        if (right == 0) {
+          throw new RuntimeError(binary.operator, "Divisor cannot be 0.");
+        }
+        return left / right;
+      case STAR: return left * right;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  // Comparisons only accept numbers. Comparing them unboxed saves boxing the
+  // arithmetic on either side, as in `x * x < limit`.
+  private boolean compareNumbers(Expr.Binary expr) {
+    Object boxedLeft = expr.numericLeft ? null : evaluate(expr.left);
+    double left = expr.numericLeft ? evaluateDouble(expr.left) : 0;
+    double right = expr.numericRight
+                       ? evaluateDouble(expr.right)
+                       : toNumber(expr.operator, evaluate(expr.right));
+    if (!expr.numericLeft)
+      left = toNumber(expr.operator, boxedLeft);
+
+    switch (expr.operator.type) {
+      case GREATER: return left > right;
+      case GREATER_EQUAL: return left >= right;
+      case LESS: return left < right;
+      case LESS_EQUAL: return left <= right;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  private double toNumber(Token operator, Object operand) {
+    if (operand instanceof Double)
+      return (double) operand;
     throw new RuntimeError(operator, "Operands must be numbers.");
   }
 
   // Lox follows Ruby's simple rule: false and nil are falsey, and everything
   // else is truthy.
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null)
       return false;
     if (object instanceof Boolean)
@@ -245,7 +645,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   // You can't ask Lox if 3 is less than "three", but you can ask if it's equal
   // to it.
-  private boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     if (a == null && b == null)
       return true;
     if (a == null)
@@ -253,7 +653,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return a.equals(b);
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null)
       return "nil";
 
@@ -273,7 +673,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   private void execute(Stmt stmt) {
-    stmt.accept(this);
+    if (listener == null) {
+      stmt.accept(this);
+      return;
+    }
+    ExecutionListener listener = this.listener;
+    listener.enterStatement(stmt);
+    try {
+      stmt.accept(this);
+    } finally {
+      listener.exitStatement(stmt);
+    }
   }
 
   // To execute code within a given scope, this method updates the interpreter's
@@ -281,7 +691,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   // previous value. As is always good practice in Java, it restores the
   // previous environment using a finally clause. That way it gets restored even
   // if an exception is thrown.
-  private void executeBlock(List<Stmt> statements, Environment environment) {
+  void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
     try {
       this.environment = environment;
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+// The superclass of every hidden class `JitCompiler` defines. A subclass runs
+// the body of one function declaration.
+abstract class JitCode {
+  // Tokens, strings, numbers and nested declarations the compiled code refers
+  // to. The generated bytecode loads them by index.
+  final Object[] constants;
+
+  JitCode(Object[] constants) {
+    this.constants = constants;
+  }
+
+  // Runs the function body in `environment`, which already holds the
+  // arguments, and returns the function's result.
+  abstract Object run(Interpreter interpreter, Environment environment);
+}
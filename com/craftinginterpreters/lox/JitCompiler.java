@@ -0,0 +1,538 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiles the body of a hot function straight to JVM bytecode and loads it as
+// a hidden class, so HotSpot can inline and optimize Lox code like any other
+// Java method. Variables still live in the same `Environment` slots the
+// interpreter uses, so compiled and interpreted functions can call each other
+// and share closures freely.
+//
+// The generated method keeps the interpreter in local 1 and the current
+// environment in local 2. Entering a block replaces local 2 with a new
+// environment and leaving it restores the enclosing one.
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private static final String PACKAGE = "com/craftinginterpreters/lox/";
+  private static final String OBJECT = "java/lang/Object";
+  private static final String BOOLEAN = "java/lang/Boolean";
+  private static final String DOUBLE = "java/lang/Double";
+  private static final String TOKEN = PACKAGE + "Token";
+  private static final String ENVIRONMENT = PACKAGE + "Environment";
+  private static final String INTERPRETER = PACKAGE + "Interpreter";
+  private static final String FUNCTION = PACKAGE + "Stmt$Function";
+  private static final String VAR = PACKAGE + "Stmt$Var";
+  private static final String JIT_CODE = PACKAGE + "JitCode";
+  private static final String RUNTIME = PACKAGE + "JitRuntime";
+
+  private static final String L_OBJECT = "L" + OBJECT + ";";
+  private static final String L_TOKEN = "L" + TOKEN + ";";
+  private static final String L_ENVIRONMENT = "L" + ENVIRONMENT + ";";
+  private static final String L_INTERPRETER = "L" + INTERPRETER + ";";
+
+  private static final int INTERPRETER_LOCAL = 1;
+  private static final int ENVIRONMENT_LOCAL = 2;
+
+  private final ClassAssembler assembler;
+  private final ClassAssembler.Code code;
+  private final List<Object> constants = new ArrayList<>();
+  // Tokens and declarations are shared by identity. Strings and numbers are
+  // shared if they're equal.
+  private final Map<Object, Integer> identityIndices = new IdentityHashMap<>();
+  private final Map<Object, Integer> valueIndices = new HashMap<>();
+
+  private JitCompiler(String name) {
+    this.assembler =
+        new ClassAssembler(PACKAGE + "JitCompiled$" + name, JIT_CODE);
+    this.code = assembler.newCode(3);
+  }
+
+  // Returns the compiled body, or null if the function can't be compiled. The
+  // caller keeps interpreting it in that case.
+  static JitCode compile(Stmt.Function declaration) {
+    try {
+      JitCompiler compiler = new JitCompiler(declaration.name.lexeme());
+      for (Stmt statement : declaration.body) {
+        compiler.compile(statement);
+      }
+      compiler.code.op(ClassAssembler.ACONST_NULL, 1);
+      compiler.code.op(ClassAssembler.ARETURN, -1);
+      return compiler.define();
+    } catch (ClassAssembler.TooLarge | LinkageError error) {
+      return null;
+    }
+  }
+
+  private JitCode define() {
+    ClassAssembler.Code constructor = assembler.newCode(2);
+    constructor.aload(0);
+    constructor.aload(1);
+    constructor.invoke(ClassAssembler.INVOKESPECIAL, JIT_CODE, "<init>",
+                       "([" + L_OBJECT + ")V");
+    constructor.op(ClassAssembler.RETURN, 0);
+    assembler.addMethod("<init>", "([" + L_OBJECT + ")V", constructor);
+    assembler.addMethod("run",
+                        "(" + L_INTERPRETER + L_ENVIRONMENT + ")" + L_OBJECT,
+                        code);
+
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(
+          assembler.toByteArray(), true);
+      MethodHandle constructorHandle = lookup.findConstructor(
+          lookup.lookupClass(),
+          MethodType.methodType(void.class, Object[].class));
+      return (JitCode) constructorHandle.invoke(constants.toArray());
+    } catch (LinkageError error) {
+      throw error;
+    } catch (Throwable error) {
+      throw new AssertionError(error);
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.slotCount == 0) {
+      for (Stmt statement : stmt.statements) {
+        compile(statement);
+      }
+      return null;
+    }
+    code.typeOp(ClassAssembler.NEW, ENVIRONMENT);
+    code.op(ClassAssembler.DUP, 1);
+    code.aload(ENVIRONMENT_LOCAL);
+    code.pushInt(stmt.slotCount);
+    code.invoke(ClassAssembler.INVOKESPECIAL, ENVIRONMENT, "<init>",
+                "(" + L_ENVIRONMENT + "I)V");
+    code.astore(ENVIRONMENT_LOCAL);
+    for (Stmt statement : stmt.statements) {
+      compile(statement);
+    }
+    code.aload(ENVIRONMENT_LOCAL);
+    code.getField(ENVIRONMENT, "enclosing", L_ENVIRONMENT);
+    code.astore(ENVIRONMENT_LOCAL);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    code.op(ClassAssembler.POP, -1);
+    return null;
+  }
+
+  // A nested function is still interpreted until it gets hot itself. Only
+  // the closure creation is compiled.
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    loadConstant(stmt, FUNCTION);
+    code.aload(ENVIRONMENT_LOCAL);
+    invokeRuntime("closure", "(L" + FUNCTION + ";" + L_ENVIRONMENT + ")" +
+                                 L_OBJECT);
+    defineVariable(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    ClassAssembler.Label elseLabel = code.newLabel();
+    ClassAssembler.Label end = code.newLabel();
+    branchIfFalse(stmt.condition, elseLabel);
+    compile(stmt.thenBranch);
+    code.branch(ClassAssembler.GOTO, end);
+    code.mark(elseLabel);
+    if (stmt.elseBranch != null)
+      compile(stmt.elseBranch);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    invokeRuntime("print", "(" + L_OBJECT + ")V");
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      code.op(ClassAssembler.ACONST_NULL, 1);
+    } else if (stmt.tailCall) {
+      compileCall((Expr.Call) stmt.value, "tailCall");
+    } else {
+      compile(stmt.value);
+    }
+    code.op(ClassAssembler.ARETURN, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.slot < 0 && stmt.initializer == null) {
+      code.aload(INTERPRETER_LOCAL);
+      loadConstant(stmt.name, TOKEN);
+      invokeRuntime("declareGlobal", "(" + L_INTERPRETER + L_TOKEN + ")V");
+      return null;
+    }
+    if (stmt.initializer == null) {
+      code.aload(INTERPRETER_LOCAL);
+      code.aload(ENVIRONMENT_LOCAL);
+      loadConstant(stmt, VAR);
+      invokeRuntime("shadowedValue", "(" + L_INTERPRETER + L_ENVIRONMENT + "L" +
+                                         VAR + ";)" + L_OBJECT);
+    } else {
+      compile(stmt.initializer);
+    }
+    defineVariable(stmt.name, stmt.slot);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    ClassAssembler.Label start = code.newLabel();
+    ClassAssembler.Label end = code.newLabel();
+    code.mark(start);
+    branchIfFalse(stmt.condition, end);
+    compile(stmt.body);
+    code.branch(ClassAssembler.GOTO, start);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    if (expr.depth < 0) {
+      code.aload(INTERPRETER_LOCAL);
+      loadConstant(expr.name, TOKEN);
+      invokeRuntime("assignGlobal", "(" + L_OBJECT + L_INTERPRETER + L_TOKEN +
+                                        ")" + L_OBJECT);
+    } else {
+      code.aload(ENVIRONMENT_LOCAL);
+      code.pushInt(expr.depth);
+      code.pushInt(expr.slot);
+      invokeRuntime("assignAt",
+                    "(" + L_OBJECT + L_ENVIRONMENT + "II)" + L_OBJECT);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    switch (expr.operator.type) {
+      case MINUS:
+      case SLASH:
+      case STAR:
+        compileDouble(expr);
+        boxDouble();
+        return null;
+      case PLUS:
+        if (expr.numericLeft && expr.numericRight) {
+          compileDouble(expr);
+          boxDouble();
+          return null;
+        }
+        compile(expr.left);
+        compile(expr.right);
+        loadConstant(expr.operator, TOKEN);
+        invokeRuntime("add", "(" + L_OBJECT + L_OBJECT + L_TOKEN + ")" +
+                                 L_OBJECT);
+        return null;
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        compileComparison(expr);
+        boxBoolean();
+        return null;
+      case BANG_EQUAL:
+      case EQUAL_EQUAL:
+        compile(expr.left);
+        compile(expr.right);
+        invokeRuntime("isEqual", "(" + L_OBJECT + L_OBJECT + ")Z");
+        if (expr.operator.type == TokenType.BANG_EQUAL)
+          negateBoolean();
+        boxBoolean();
+        return null;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compileCall(expr, "call");
+    return null;
+  }
+
+  // `runtimeMethod` is `JitRuntime.call()` or, for a call in tail position,
+  // `JitRuntime.tailCall()`.
+  private void compileCall(Expr.Call expr, String runtimeMethod) {
+    compile(expr.callee);
+    code.pushInt(expr.arguments.size());
+    code.typeOp(ClassAssembler.ANEWARRAY, OBJECT);
+    for (int i = 0; i < expr.arguments.size(); ++i) {
+      code.op(ClassAssembler.DUP, 1);
+      code.pushInt(i);
+      compile(expr.arguments.get(i));
+      code.op(ClassAssembler.AASTORE, -3);
+    }
+    code.aload(INTERPRETER_LOCAL);
+    loadConstant(expr.paren, TOKEN);
+    invokeRuntime(runtimeMethod, "(" + L_OBJECT + "[" + L_OBJECT +
+                                     L_INTERPRETER + L_TOKEN + ")" + L_OBJECT);
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      code.op(ClassAssembler.ACONST_NULL, 1);
+    } else if (expr.value instanceof Boolean) {
+      code.getStatic(BOOLEAN, (boolean) expr.value ? "TRUE" : "FALSE",
+                     "L" + BOOLEAN + ";");
+    } else {
+      loadConstant(expr.value, null);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    ClassAssembler.Label end = code.newLabel();
+    compile(expr.left);
+    code.op(ClassAssembler.DUP, 1);
+    invokeRuntime("isTruthy", "(" + L_OBJECT + ")Z");
+    code.branch(expr.operator.type == TokenType.OR ? ClassAssembler.IFNE
+                                                   : ClassAssembler.IFEQ,
+                end);
+    code.op(ClassAssembler.POP, -1);
+    compile(expr.right);
+    code.mark(end);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    if (expr.operator.type == TokenType.MINUS) {
+      compileDouble(expr);
+      boxDouble();
+      return null;
+    }
+    compile(expr.right);
+    invokeRuntime("isTruthy", "(" + L_OBJECT + ")Z");
+    negateBoolean();
+    boxBoolean();
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    if (expr.depth < 0) {
+      code.aload(INTERPRETER_LOCAL);
+      loadConstant(expr.name, TOKEN);
+      invokeRuntime("getGlobal",
+                    "(" + L_INTERPRETER + L_TOKEN + ")" + L_OBJECT);
+    } else if (expr.depth == 0) {
+      code.aload(ENVIRONMENT_LOCAL);
+      code.pushInt(expr.slot);
+      loadConstant(expr.name, TOKEN);
+      code.invoke(ClassAssembler.INVOKEVIRTUAL, ENVIRONMENT, "getLocal",
+                  "(I" + L_TOKEN + ")" + L_OBJECT);
+    } else {
+      code.aload(ENVIRONMENT_LOCAL);
+      code.pushInt(expr.depth);
+      code.pushInt(expr.slot);
+      loadConstant(expr.name, TOKEN);
+      code.invoke(ClassAssembler.INVOKEVIRTUAL, ENVIRONMENT, "getAt",
+                  "(II" + L_TOKEN + ")" + L_OBJECT);
+    }
+    return null;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  // Leaves the boxed value of `expr` on the operand stack.
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  // Leaves a primitive double on the operand stack. Only valid for
+  // expressions `Resolver.isNumber()` accepts. Mirrors
+  // `Interpreter.evaluateDouble()`.
+  private void compileDouble(Expr expr) {
+    if (expr instanceof Expr.Literal) {
+      code.pushDouble((double) ((Expr.Literal) expr).value);
+    } else if (expr instanceof Expr.Grouping) {
+      compileDouble(((Expr.Grouping) expr).expression);
+    } else if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      if (unary.numericRight) {
+        compileDouble(unary.right);
+      } else {
+        compile(unary.right);
+        loadConstant(unary.operator, TOKEN);
+        invokeRuntime("negateOperand", "(" + L_OBJECT + L_TOKEN + ")D");
+      }
+      code.op(ClassAssembler.DNEG, 0);
+    } else {
+      Expr.Binary binary = (Expr.Binary) expr;
+      if (!binary.numericLeft || !binary.numericRight) {
+        // The checks have to wait until both operands have been evaluated,
+        // so this is done boxed.
+        compileBoxed(binary.left, binary.numericLeft);
+        compileBoxed(binary.right, binary.numericRight);
+        loadConstant(binary.operator, TOKEN);
+        invokeRuntime("arithmetic", "(" + L_OBJECT + L_OBJECT + L_TOKEN + ")D");
+        return;
+      }
+      compileDouble(binary.left);
+      compileDouble(binary.right);
+      switch (binary.operator.type) {
+        case PLUS: code.op(ClassAssembler.DADD, -2); break;
+        case MINUS: code.op(ClassAssembler.DSUB, -2); break;
+        case STAR: code.op(ClassAssembler.DMUL, -2); break;
+        default:
+          loadConstant(binary.operator, TOKEN);
+          invokeRuntime("divide", "(DD" + L_TOKEN + ")D");
+          break;
+      }
+    }
+  }
+
+  private void compileBoxed(Expr expr, boolean numeric) {
+    if (numeric) {
+      compileDouble(expr);
+      boxDouble();
+    } else {
+      compile(expr);
+    }
+  }
+
+  // Leaves 1 or 0 on the operand stack for a `<`, `<=`, `>` or `>=`.
+  private void compileComparison(Expr.Binary expr) {
+    ClassAssembler.Label isFalse = code.newLabel();
+    ClassAssembler.Label end = code.newLabel();
+    branchIfFalse(expr, isFalse);
+    code.pushInt(1);
+    code.branch(ClassAssembler.GOTO, end);
+    code.mark(isFalse);
+    code.pushInt(0);
+    code.mark(end);
+  }
+
+  // Jumps to `target` if `condition` is falsey. Comparisons of numbers
+  // compile to a direct comparison and branch without boxing anything.
+  private void branchIfFalse(Expr condition, ClassAssembler.Label target) {
+    if (condition instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) condition;
+      int compare = -1;
+      int branch = -1;
+      switch (binary.operator.type) {
+        // DCMPG and DCMPL differ only in how they treat NaN. Picking the right
+        // one makes every comparison with NaN false, as it is in Java.
+        case GREATER:
+          compare = ClassAssembler.DCMPL;
+          branch = ClassAssembler.IFLE;
+          break;
+        case GREATER_EQUAL:
+          compare = ClassAssembler.DCMPL;
+          branch = ClassAssembler.IFLT;
+          break;
+        case LESS:
+          compare = ClassAssembler.DCMPG;
+          branch = ClassAssembler.IFGE;
+          break;
+        case LESS_EQUAL:
+          compare = ClassAssembler.DCMPG;
+          branch = ClassAssembler.IFGT;
+          break;
+        default: break;
+      }
+      if (compare >= 0) {
+        if (binary.numericLeft && binary.numericRight) {
+          compileDouble(binary.left);
+          compileDouble(binary.right);
+          code.op(compare, -3);
+          code.branch(branch, target);
+        } else {
+          compileBoxed(binary.left, binary.numericLeft);
+          compileBoxed(binary.right, binary.numericRight);
+          loadConstant(binary.operator, TOKEN);
+          invokeRuntime("compare", "(" + L_OBJECT + L_OBJECT + L_TOKEN + ")Z");
+          code.branch(ClassAssembler.IFEQ, target);
+        }
+        return;
+      }
+    }
+    compile(condition);
+    invokeRuntime("isTruthy", "(" + L_OBJECT + ")Z");
+    code.branch(ClassAssembler.IFEQ, target);
+  }
+
+  private void defineVariable(Token name, int slot) {
+    if (slot < 0) {
+      code.aload(INTERPRETER_LOCAL);
+      loadConstant(name, TOKEN);
+      invokeRuntime("defineGlobal",
+                    "(" + L_OBJECT + L_INTERPRETER + L_TOKEN + ")V");
+      return;
+    }
+    // The value is already on the stack, so this goes through a helper that
+    // takes it first rather than `Environment.define()`.
+    code.aload(ENVIRONMENT_LOCAL);
+    code.pushInt(slot);
+    invokeRuntime("defineAt", "(" + L_OBJECT + L_ENVIRONMENT + "I)V");
+  }
+
+  // Loads entry `constant` of `JitCode.constants`, cast to `type` unless it's
+  // null.
+  private void loadConstant(Object constant, String type) {
+    boolean byIdentity =
+        !(constant instanceof String) && !(constant instanceof Double);
+    Map<Object, Integer> indices = byIdentity ? identityIndices : valueIndices;
+    Integer index = indices.get(constant);
+    if (index == null) {
+      index = constants.size();
+      constants.add(constant);
+      indices.put(constant, index);
+    }
+    code.aload(0);
+    code.getField(JIT_CODE, "constants", "[" + L_OBJECT);
+    code.pushInt(index);
+    code.op(ClassAssembler.AALOAD, -1);
+    if (type != null)
+      code.typeOp(ClassAssembler.CHECKCAST, type);
+  }
+
+  private void invokeRuntime(String name, String descriptor) {
+    code.invoke(ClassAssembler.INVOKESTATIC, RUNTIME, name, descriptor);
+  }
+
+  private void boxDouble() {
+    code.invoke(ClassAssembler.INVOKESTATIC, DOUBLE, "valueOf",
+                "(D)L" + DOUBLE + ";");
+  }
+
+  private void boxBoolean() {
+    code.invoke(ClassAssembler.INVOKESTATIC, BOOLEAN, "valueOf",
+                "(Z)L" + BOOLEAN + ";");
+  }
+
+  private void negateBoolean() {
+    code.pushInt(1);
+    code.op(ClassAssembler.IXOR, -1);
+  }
+}
@@ -0,0 +1,119 @@
+package com.craftinginterpreters.lox;
+
+// Static helpers called from JIT-compiled code. Anything that needs a type
+// check or can raise a runtime error lives here rather than being spelled out
+// in bytecode. HotSpot inlines these small methods into the compiled function,
+// so the indirection costs nothing once the code is hot.
+final class JitRuntime {
+  private JitRuntime() {}
+
+  static Object getGlobal(Interpreter interpreter, Token name) {
+    return interpreter.globalEnvironment.get(name);
+  }
+
+  static Object assignGlobal(Object value, Interpreter interpreter,
+                             Token name) {
+    interpreter.globalEnvironment.assign(name, value);
+    return value;
+  }
+
+  static void defineGlobal(Object value, Interpreter interpreter, Token name) {
+    interpreter.globalEnvironment.define(name.symbol, value);
+  }
+
+  static void declareGlobal(Interpreter interpreter, Token name) {
+    interpreter.globalEnvironment.addUndefinedVariable(name.symbol);
+  }
+
+  static Object shadowedValue(Interpreter interpreter, Environment environment,
+                              Stmt.Var stmt) {
+    return environment.shadowedValue(stmt, interpreter.globalEnvironment);
+  }
+
+  static Object assignAt(Object value, Environment environment, int depth,
+                         int slot) {
+    environment.assignAt(depth, slot, value);
+    return value;
+  }
+
+  static void defineAt(Object value, Environment environment, int slot) {
+    environment.define(slot, value);
+  }
+
+  static Object closure(Stmt.Function declaration, Environment environment) {
+    return new LoxFunction(declaration, environment);
+  }
+
+  static Object call(Object callee, Object[] arguments,
+                     Interpreter interpreter, Token paren) {
+    return interpreter.call(paren, callee, arguments);
+  }
+
+  // Returns a `TailCall` for the compiled function's `LoxFunction` to make,
+  // unless the callee is native.
+  static Object tailCall(Object callee, Object[] arguments,
+                         Interpreter interpreter, Token paren) {
+    return interpreter.tailCall(paren, callee, arguments);
+  }
+
+  static void print(Object value) {
+    System.out.println(Interpreter.stringify(value));
+  }
+
+  static boolean isTruthy(Object value) {
+    return Interpreter.isTruthy(value);
+  }
+
+  static boolean isEqual(Object left, Object right) {
+    return Interpreter.isEqual(left, right);
+  }
+
+  static Object add(Object left, Object right, Token operator) {
+    return Interpreter.genericAdd(operator, left, right);
+  }
+
+  // Arithmetic on operands that weren't known to be numbers at compile time.
+  // Both operands have been evaluated by now, which matches the order in
+  // which the interpreter reports errors.
+  static double arithmetic(Object left, Object right, Token operator) {
+    if (!(left instanceof Double) || !(right instanceof Double)) {
+      throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+    double a = (double) left;
+    double b = (double) right;
+    switch (operator.type) {
+      case PLUS: return a + b;
+      case MINUS: return a - b;
+      case STAR: return a * b;
+      default: return divide(a, b, operator);
+    }
+  }
+
+  static double divide(double left, double right, Token operator) {
+    if (right == 0) {
+      throw new RuntimeError(operator, "Divisor cannot be 0.");
+    }
+    return left / right;
+  }
+
+  static double negateOperand(Object operand, Token operator) {
+    if (!(operand instanceof Double)) {
+      throw new RuntimeError(operator, "Operand must be a number.");
+    }
+    return (double) operand;
+  }
+
+  static boolean compare(Object left, Object right, Token operator) {
+    if (!(left instanceof Double) || !(right instanceof Double)) {
+      throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+    double a = (double) left;
+    double b = (double) right;
+    switch (operator.type) {
+      case GREATER: return a > b;
+      case GREATER_EQUAL: return a >= b;
+      case LESS: return a < b;
+      default: return a <= b;
+    }
+  }
+}
@@ -3,34 +3,350 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Lox {
   // Makes the field static so that successive calls to `run()` inside a REPL
   // session reuse the same interpreter.
   private static final Interpreter interpreter = new Interpreter();
+  // Share their globals with `interpreter`. Only used with `--engine=vm`,
+  // `--engine=flat` and `--engine=stackless`.
+  private static VM vm = null;
+  private static FlatInterpreter flat = null;
+  private static StacklessInterpreter stackless = null;
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
+  // The tree-walking interpreter is the default. `--engine=vm` compiles the
+  // syntax tree to bytecode and runs it on the VM instead. `--engine=flat`
+  // lowers it to a `FlatAst` and runs that. `--engine=stackless` walks the
+  // tree with its own stacks on the heap instead of Java recursion.
+  private enum Engine { TREE, VM, FLAT, STACKLESS }
+  private static Engine engine = Engine.TREE;
+  // `--jit` compiles functions of the tree-walking interpreter to JVM bytecode
+  // once they've been called this many times. `--jit=N` picks the count.
+  private static final int DEFAULT_JIT_THRESHOLD = 1000;
+  // `--no-optimize` runs the tree exactly as parsed. `--optimizer-report`
+  // prints how many nodes the optimizer removed.
+  private static boolean optimize = true;
+  private static boolean optimizerReport = false;
+  // `--cache[=dir]` reuses the resolved tree of a script that ran before.
+  // `--precompile=dir` fills the cache with every script under `dir`.
+  private static ScriptCache cache = null;
+  // `--mmap` scans scripts straight out of a memory-mapped file, decoding
+  // UTF-8 only where text is copied out, instead of reading the whole file
+  // into a string in the platform charset first.
+  private static boolean mapFiles = false;
+  // `--profile[=file]` samples the Lox call stack while a script runs and
+  // writes it in collapsed-stack format for flame graph tools.
+  private static final long PROFILE_INTERVAL_NANOS = 1_000_000;
+  private static Path profileOutput = null;
+  // `--coverage[=file]` counts how often each line of a script runs and writes
+  // an LCOV tracefile.
+  private static Path coverageOutput = null;
+  // `--metrics[=file]` keeps runtime counters and writes them at exit. See
+  // `Metrics`.
+  private static Path metricsOutput = null;
+
+  // A program split across several files, given on the command line or
+  // listed in a `--manifest`, is compiled one file per task on the common
+  // ForkJoinPool and then run in order, as if the files were concatenated.
+  // While a file compiles, its static errors are collected here with the
+  // file's name instead of being printed, so they come out in file order.
+  private static final class SourceFile {
+    final Path path;
+    final List<String> messages = new ArrayList<>();
+    boolean hadError = false;
+    List<Stmt> statements = null;
+    IOException readError = null;
+
+    SourceFile(Path path) {
+      this.path = path;
+    }
+  }
+
+  private static final ThreadLocal<SourceFile> compiling = new ThreadLocal<>();
+
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
-    } else {
-      runPrompt();
+    List<Path> scripts = new ArrayList<>();
+    Path cacheDirectory = null;
+    Path precompileDirectory = null;
+    for (String arg : args) {
+      if (arg.equals("--engine=tree")) {
+        engine = Engine.TREE;
+      } else if (arg.equals("--engine=vm")) {
+        engine = Engine.VM;
+      } else if (arg.equals("--engine=flat")) {
+        engine = Engine.FLAT;
+      } else if (arg.equals("--engine=stackless")) {
+        engine = Engine.STACKLESS;
+      } else if (arg.equals("--jit")) {
+        interpreter.jitThreshold = DEFAULT_JIT_THRESHOLD;
+      } else if (arg.startsWith("--jit=")) {
+        interpreter.jitThreshold = parseCount(arg.substring(6), 0);
+      } else if (arg.startsWith("--max-depth=")) {
+        interpreter.maxCallDepth = parseCount(arg.substring(12), 1);
+      } else if (arg.equals("--no-optimize")) {
+        optimize = false;
+      } else if (arg.equals("--optimizer-report")) {
+        optimizerReport = true;
+      } else if (arg.equals("--cache")) {
+        cacheDirectory = defaultCacheDirectory();
+      } else if (arg.startsWith("--cache=")) {
+        cacheDirectory = Paths.get(arg.substring(8));
+      } else if (arg.equals("--mmap")) {
+        mapFiles = true;
+      } else if (arg.equals("--profile")) {
+        profileOutput = Paths.get("lox.folded");
+      } else if (arg.startsWith("--profile=")) {
+        profileOutput = Paths.get(arg.substring(10));
+      } else if (arg.equals("--coverage")) {
+        coverageOutput = Paths.get("lox.lcov");
+      } else if (arg.startsWith("--coverage=")) {
+        coverageOutput = Paths.get(arg.substring(11));
+      } else if (arg.equals("--metrics")) {
+        metricsOutput = Paths.get("lox.prom");
+      } else if (arg.startsWith("--metrics=")) {
+        metricsOutput = Paths.get(arg.substring(10));
+      } else if (arg.startsWith("--manifest=")) {
+        scripts.addAll(readManifest(Paths.get(arg.substring(11))));
+      } else if (arg.startsWith("--precompile=")) {
+        precompileDirectory = Paths.get(arg.substring(13));
+      } else if (arg.startsWith("-")) {
+        usage();
+      } else {
+        scripts.add(Paths.get(arg));
+      }
+    }
+    if (engine == Engine.VM) {
+      vm = new VM(interpreter);
+    } else if (engine == Engine.FLAT) {
+      flat = new FlatInterpreter(interpreter);
+    } else if (engine == Engine.STACKLESS) {
+      stackless = new StacklessInterpreter(interpreter);
+    }
+    // Only the tree-walking interpreter reports to listeners, and only a
+    // single script has a clear start and end to instrument.
+    if ((profileOutput != null || coverageOutput != null) &&
+        (engine != Engine.TREE || scripts.size() != 1))
+      usage();
+    // Coverage has to see every line the script has, including the branches
+    // the optimizer would drop as dead.
+    if (coverageOutput != null)
+      optimize = false;
+    if (precompileDirectory != null) {
+      if (!scripts.isEmpty())
+        usage();
+      if (cacheDirectory == null)
+        cacheDirectory = defaultCacheDirectory();
+    }
+    if (cacheDirectory != null) {
+      cache = new ScriptCache(cacheDirectory, optimize, sourceCharset());
+    }
+
+    Path precompile = precompileDirectory;
+    runOnLoxThread(() -> {
+      if (metricsOutput != null)
+        enableMetrics();
+      if (precompile != null) {
+        precompile(precompile);
+      } else if (scripts.size() == 1) {
+        runFile(scripts.get(0));
+      } else if (!scripts.isEmpty()) {
+        runFiles(scripts);
+      } else {
+        runPrompt();
+      }
+    });
+  }
+
+  private static int parseCount(String value, int minimum) {
+    try {
+      int count = Integer.parseInt(value);
+      if (count >= minimum)
+        return count;
+    } catch (NumberFormatException error) {
+    }
+    usage();
+    return -1;
+  }
+
+  private interface LoxTask {
+    void run() throws IOException;
+  }
+
+  // Lox calls recurse on the Java stack, so Lox code runs on a thread with
+  // room for `Interpreter.maxCallDepth` of them rather than on `main`.
+  // Whatever the task throws is thrown again here.
+  private static void runOnLoxThread(LoxTask task) throws IOException {
+    FutureTask<Void> future = new FutureTask<>(() -> {
+      task.run();
+      return null;
+    });
+    new Thread(null, future, "lox", interpreter.stackSize()).start();
+    boolean interrupted = false;
+    try {
+      for (;;) {
+        try {
+          future.get();
+          return;
+        } catch (InterruptedException exception) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException exception) {
+      Throwable cause = exception.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw (Error) cause;
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void usage() {
+    System.out.println("Usage: jlox [--engine=tree|vm|flat|stackless]"
+                       + " [--jit[=calls]] [--max-depth=calls]"
+                       + " [--no-optimize] [--optimizer-report]"
+                       + " [--cache[=dir]] [--mmap] [--profile[=file]]"
+                       + " [--coverage[=file]] [--metrics[=file]]"
+                       + " [script ... | --manifest=file | --precompile=dir]");
+    System.exit(64);
+  }
+
+  // Dumps the metrics at exit, including exits with an error code.
+  private static void enableMetrics() {
+    Metrics.enable();
+    Runtime.getRuntime().addShutdownHook(new Thread(Lox::writeMetrics));
+  }
+
+  private static void writeMetrics() {
+    try {
+      Metrics.write(metricsOutput);
+    } catch (IOException error) {
+      System.err.println("Failed to write metrics to " + metricsOutput + ": " +
+                         error.getMessage());
+    }
+  }
+
+  private static Path defaultCacheDirectory() {
+    return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+  }
+
+  // Compiles every `.lox` file under `directory` into the cache without
+  // running it.
+  private static void precompile(Path directory) throws IOException {
+    List<Path> scripts;
+    try (Stream<Path> paths = Files.walk(directory)) {
+      scripts = paths.filter(path -> path.toString().endsWith(".lox"))
+                    .sorted()
+                    .collect(Collectors.toList());
+    }
+    int failed = 0;
+    for (Path path : scripts) {
+      hadError = false;
+      if (compileFile(path) == null) {
+        System.err.println("Failed to precompile " + path + ".");
+        ++failed;
+      }
+    }
+    System.out.println("Precompiled " + (scripts.size() - failed) + " of " +
+                       scripts.size() + " scripts.");
+    if (failed > 0)
+      System.exit(65);
+  }
+
+  // Reads a manifest: one script per line, relative to the manifest's
+  // directory. Blank lines and lines starting with '#' are skipped.
+  private static List<Path> readManifest(Path manifest) throws IOException {
+    Path directory = manifest.toAbsolutePath().getParent();
+    List<Path> scripts = new ArrayList<>();
+    for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+      line = line.trim();
+      if (!line.isEmpty() && !line.startsWith("#"))
+        scripts.add(directory.resolve(line).normalize());
     }
+    return scripts;
   }
 
-  private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()), /*isREPL=*/false);
+  private static void runFile(Path path) throws IOException {
+    List<Stmt> statements = compileFile(path);
+    if (statements != null) {
+      Coverage coverage = null;
+      if (coverageOutput != null) {
+        coverage = new Coverage();
+        coverage.register(statements);
+        interpreter.addListener(coverage);
+      }
+      if (profileOutput != null) {
+        profile(statements);
+      } else {
+        execute(statements);
+      }
+      if (coverage != null)
+        coverage.write(coverageOutput, path);
+    }
+
+    exitOnError();
+  }
 
-    // Indicate an error in the exit code.
+  // Compiles the files in parallel, then runs them in order. Nothing runs if
+  // any file has a static error, and a runtime error stops the program.
+  private static void runFiles(List<Path> paths) throws IOException {
+    List<SourceFile> files = new ArrayList<>();
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (Path path : paths) {
+      SourceFile file = new SourceFile(path);
+      files.add(file);
+      tasks.add(ForkJoinTask.adapt(() -> compile(file)));
+    }
+    ForkJoinTask.invokeAll(tasks);
+
+    for (SourceFile file : files) {
+      if (file.readError != null)
+        throw file.readError;
+      for (String message : file.messages) {
+        System.err.println(message);
+      }
+      hadError |= file.hadError;
+    }
+    for (SourceFile file : files) {
+      if (hadError || hadRuntimeError)
+        break;
+      execute(file.statements);
+    }
+
+    exitOnError();
+  }
+
+  private static void compile(SourceFile file) {
+    compiling.set(file);
+    try {
+      file.statements = compileFile(file.path);
+    } catch (IOException error) {
+      file.readError = error;
+    } finally {
+      compiling.remove();
+    }
+  }
+
+  // Indicates an error in the exit code.
+  private static void exitOnError() {
     if (hadError)
       System.exit(65);
     if (hadRuntimeError)
@@ -46,30 +362,147 @@ public class Lox {
       String line = reader.readLine();
       if (line == null)
         break;
-      run(line, /*isREPL=*/true);
+      runLine(line);
       // Reset this flag in the interactive loop. If the user makes a mistake,
       // it shouldn’t kill their entire session.
       hadError = false;
     }
   }
 
-  private static void run(String source, boolean isREPL) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+  private static void runLine(String line) {
+    Parser parser = new Parser(new Scanner(line));
+    List<Stmt> statements = compile(parser.parseReplLine());
+    if (statements != null)
+      execute(statements);
+  }
 
-    if (isREPL && tokens.get(tokens.size() - 2).type != TokenType.SEMICOLON) {
-      Expr expression = parser.parseExpression();
-      // Stop if there was a syntax error.
-      if (hadError)
-        return;
-      interpreter.interpret(expression);
+  // Loads a script's tree from the cache, or compiles it and caches the
+  // result. Returns null if there was a static error.
+  private static List<Stmt> compileFile(Path path) throws IOException {
+    ByteBuffer bytes;
+    CharSequence source;
+    if (mapFiles) {
+      Utf8Source mapped = Utf8Source.map(path);
+      bytes = mapped.bytes();
+      source = mapped;
     } else {
-      List<Stmt> statements = parser.parseStatements();
-      // Stop if there was a syntax error.
+      byte[] contents = Files.readAllBytes(path);
+      bytes = ByteBuffer.wrap(contents);
+      source = new String(contents, sourceCharset());
+    }
+    List<Stmt> statements = cache == null ? null : cache.load(bytes);
+    if (statements == null) {
+      statements = compile(source);
+      if (statements != null && cache != null)
+        cache.store(bytes, statements);
+    }
+    return statements;
+  }
+
+  private static Charset sourceCharset() {
+    return mapFiles ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+  }
+
+  private static List<Stmt> compile(CharSequence source) {
+    long start = System.nanoTime();
+    Parser parser = new Parser(new Scanner(source));
+    List<Stmt> statements = parser.parseStatements();
+    // The parser pulls tokens as it goes. Time spent scanning them is counted
+    // separately, so leave it out of the parse time.
+    recordPhase(Metrics.Phase.PARSE, start + parser.scanNanos);
+    return compile(statements);
+  }
+
+  // Resolves and optimizes a list of parsed statements. Returns null if there
+  // was a static error.
+  private static List<Stmt> compile(List<Stmt> statements) {
+    // Stop if there was a syntax error.
+    if (hadCompileError())
+      return null;
+    // Binds every local variable to its scope and slot before running.
+    long start = System.nanoTime();
+    new Resolver().resolve(statements);
+    recordPhase(Metrics.Phase.RESOLVE, start);
+    // Stop if there was a resolution error.
+    if (hadCompileError())
+      return null;
+    if (optimize) {
+      start = System.nanoTime();
+      Optimizer optimizer = new Optimizer();
+      statements = optimizer.optimize(statements);
+      recordPhase(Metrics.Phase.OPTIMIZE, start);
+      report(optimizer);
+    }
+    return statements;
+  }
+
+  private static void execute(List<Stmt> statements) {
+    if (engine == Engine.VM) {
+      CompiledFunction script = Compiler.compileScript(statements);
+      // Stop if the program doesn't fit the bytecode format.
       if (hadError)
         return;
+      long start = System.nanoTime();
+      vm.interpret(script);
+      interpreter.awaitThreads();
+      recordPhase(Metrics.Phase.EXECUTE, start);
+    } else if (engine == Engine.FLAT) {
+      FlatAst script = Flattener.flatten(statements);
+      long start = System.nanoTime();
+      flat.interpret(script);
+      interpreter.awaitThreads();
+      recordPhase(Metrics.Phase.EXECUTE, start);
+    } else if (engine == Engine.STACKLESS) {
+      long start = System.nanoTime();
+      stackless.interpret(statements);
+      interpreter.awaitThreads();
+      recordPhase(Metrics.Phase.EXECUTE, start);
+    } else {
+      long start = System.nanoTime();
       interpreter.interpret(statements);
+      interpreter.awaitThreads();
+      recordPhase(Metrics.Phase.EXECUTE, start);
+    }
+  }
+
+  // Adds the time since `start` to a phase, for `--metrics`.
+  private static void recordPhase(Metrics.Phase phase, long start) {
+    if (!Metrics.enabled)
+      return;
+    Metrics.addPhase(phase, System.nanoTime() - start);
+    if (phase == Metrics.Phase.EXECUTE)
+      Metrics.recordAllocation();
+  }
+
+  private static void profile(List<Stmt> statements) throws IOException {
+    Profiler profiler = new Profiler(PROFILE_INTERVAL_NANOS);
+    interpreter.addListener(profiler);
+    profiler.start();
+    try {
+      execute(statements);
+    } finally {
+      profiler.stop();
+      interpreter.removeListener(profiler);
+    }
+    profiler.write(profileOutput);
+  }
+
+  // Whether the file being compiled on this thread has a static error.
+  private static boolean hadCompileError() {
+    SourceFile file = compiling.get();
+    return file == null ? hadError : file.hadError;
+  }
+
+  private static void report(Optimizer optimizer) {
+    if (!optimizerReport)
+      return;
+    SourceFile file = compiling.get();
+    if (file == null) {
+      System.err.println("[optimizer] Removed " + optimizer.removedNodes() +
+                         " nodes.");
+    } else {
+      file.messages.add("[optimizer] Removed " + optimizer.removedNodes() +
+                        " nodes from " + file.path + ".");
     }
   }
 
@@ -78,20 +511,29 @@ public class Lox {
   }
 
   private static void report(int line, String where, String message) {
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
-    hadError = true;
+    SourceFile file = compiling.get();
+    if (file == null) {
+      System.err.println("[line " + line + "] Error" + where + ": " + message);
+      hadError = true;
+    } else {
+      file.messages.add("[" + file.path + ":" + line + "] Error" + where +
+                        ": " + message);
+      file.hadError = true;
+    }
   }
 
   static void error(Token token, String message) {
     if (token.type == TokenType.EOF) {
       report(token.line, " at end", message);
     } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
+      report(token.line, " at '" + token.lexeme() + "'", message);
     }
   }
 
   static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line +
+    if (Metrics.enabled)
+      Metrics.runtimeErrors.increment();
+    System.err.println(error.getMessage() + "\n[line " + error.line +
                        "]");
     hadRuntimeError = true;
   }
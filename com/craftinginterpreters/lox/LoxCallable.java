@@ -1,8 +1,16 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 interface LoxCallable {
   int arity();
   Object call(Interpreter interpreter, List<Object> arguments);
+
+  // What the interpreters call. `arguments` is exactly `arity()` long, and the
+  // callee mustn't hold on to it after returning. Callables that can bind
+  // their parameters straight from the array override this.
+  default Object call(Interpreter interpreter, Object[] arguments) {
+    return call(interpreter, Arrays.asList(arguments));
+  }
 }
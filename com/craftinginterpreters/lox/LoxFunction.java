@@ -0,0 +1,91 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+class LoxFunction implements LoxCallable {
+  private final Stmt.Function declaration;
+  // The environment that is active when the function is declared, not when
+  // it's called.
+  private final Environment closure;
+
+  LoxFunction(Stmt.Function declaration, Environment closure) {
+    this.declaration = declaration;
+    this.closure = closure;
+  }
+
+  @Override
+  public int arity() {
+    return declaration.params.size();
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return call(interpreter, arguments.toArray());
+  }
+
+  // A tail call the body makes comes back as a `TailCall`, and is made here
+  // once the body's environment has been released.
+  @Override
+  public Object call(Interpreter interpreter, Object[] arguments) {
+    Object result = run(interpreter, arguments);
+    while (result instanceof TailCall) {
+      TailCall tailCall = (TailCall) result;
+      if (Metrics.enabled)
+        Metrics.functionCalls.increment();
+      result = tailCall.function.run(interpreter, tailCall.arguments);
+    }
+    return result;
+  }
+
+  // Each call gets its own environment. The resolver put the parameters in the
+  // first slots, in order, so binding them is just filling in the array. If
+  // the body declares no closures, the environment is borrowed from the pool.
+  private Object run(Interpreter interpreter, Object[] arguments) {
+    Environment environment =
+        declaration.recyclable
+            ? interpreter.environmentPool.acquire(closure,
+                                                  declaration.slotCount)
+            : new Environment(closure, declaration.slotCount);
+    for (int i = 0; i < arguments.length; ++i) {
+      environment.define(i, arguments[i]);
+    }
+    try {
+      JitCode jitCode = jitCode(interpreter);
+      if (jitCode != null)
+        return jitCode.run(interpreter, environment);
+      interpreter.executeBlock(declaration.body, environment);
+    } catch (Return returnValue) {
+      return returnValue.value;
+    } finally {
+      if (declaration.recyclable)
+        interpreter.environmentPool.release(environment);
+    }
+    return null;
+  }
+
+  // The compiled body lives on the declaration, so every closure created from
+  // it shares the compiled code. If compiling fails once, the function stays
+  // interpreted.
+  private JitCode jitCode(Interpreter interpreter) {
+    // Compiled code doesn't report its statements to listeners.
+    if (interpreter.listener != null)
+      return null;
+    if (declaration.jitCode != null || interpreter.jitThreshold < 0 ||
+        declaration.jitFailed)
+      return declaration.jitCode;
+    if (declaration.callCount++ < interpreter.jitThreshold)
+      return null;
+    declaration.jitCode = JitCompiler.compile(declaration);
+    declaration.jitFailed = declaration.jitCode == null;
+    return declaration.jitCode;
+  }
+
+  String name() {
+    return declaration.name.lexeme();
+  }
+
+  @Override
+  public String toString() {
+    return "<fn " + name() + ">";
+  }
+}
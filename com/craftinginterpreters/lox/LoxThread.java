@@ -0,0 +1,105 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.Set;
+
+// The handle `spawn(fn)` returns. The function runs on its own Java thread
+// with its own interpreter, which shares the globals of the one that spawned
+// it but has its own current environment, environment pool and, on the VM,
+// its own stack. `join(handle)` waits for the function and returns its result.
+//
+// A runtime error in the function is raised again by `join()`, in the joining
+// thread, so it's reported with the line where it happened. Threads nobody
+// joins are waited for when the script ends, and their errors are reported
+// then. See `Interpreter.awaitThreads()`.
+class LoxThread {
+  // The VM and `StacklessInterpreter` keep Lox calls off the Java stack, so
+  // their threads get a small one instead of `Interpreter.stackSize()`.
+  private static final long SMALL_STACK_BYTES = 256 * 1024;
+
+  private final Thread thread;
+  // The set of unjoined threads this one is in.
+  private final Set<LoxThread> registry;
+  private Object result = null;
+  private RuntimeError error = null;
+  // Whether the error has already been raised, so it's reported only once.
+  private boolean joined = false;
+
+  private LoxThread(Interpreter interpreter, LoxCallable function) {
+    registry = interpreter.threads;
+    thread = new Thread(null, () -> {
+      try {
+        result = run(interpreter, function);
+      } catch (RuntimeError error) {
+        this.error = error;
+      }
+    }, "lox-" + function, stackSize(interpreter, function));
+  }
+
+  private static long stackSize(Interpreter interpreter,
+                                LoxCallable function) {
+    if (function instanceof VmFunction ||
+        function instanceof StacklessFunction)
+      return SMALL_STACK_BYTES;
+    return interpreter.stackSize();
+  }
+
+  static LoxThread spawn(Interpreter parent, LoxCallable function) {
+    LoxThread spawned = new LoxThread(parent.forThread(), function);
+    spawned.registry.add(spawned);
+    spawned.thread.start();
+    return spawned;
+  }
+
+  // A VM function has to run on a VM of its own, since a VM's stack can only
+  // be used by one thread. Likewise for flattened and stackless functions,
+  // whose interpreters track the current environment.
+  private static Object run(Interpreter interpreter, LoxCallable function) {
+    if (function instanceof VmFunction) {
+      return new VM(interpreter).call((VmFunction) function,
+                                      Collections.emptyList());
+    }
+    if (function instanceof FlatFunction) {
+      return new FlatInterpreter(interpreter).call((FlatFunction) function,
+                                                   Collections.emptyList());
+    }
+    if (function instanceof StacklessFunction) {
+      return new StacklessInterpreter(interpreter).call(
+          (StacklessFunction) function, Collections.emptyList());
+    }
+    return function.call(interpreter, Collections.emptyList());
+  }
+
+  Object join() {
+    RuntimeError failure = await();
+    registry.remove(this);
+    if (failure != null)
+      throw failure;
+    return result;
+  }
+
+  // Waits for the thread and returns its error, unless it has already been
+  // raised by an earlier join.
+  synchronized RuntimeError await() {
+    boolean interrupted = false;
+    for (;;) {
+      try {
+        thread.join();
+        break;
+      } catch (InterruptedException exception) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+    if (joined)
+      return null;
+    joined = true;
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return "<thread>";
+  }
+}
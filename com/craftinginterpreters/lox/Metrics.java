@@ -0,0 +1,161 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runtime counters for `--metrics`. The interpreter, the VM and the front end
+// update them only when `enabled` is set, so with metrics off each site costs
+// one static field read. The counters are striped (`LongAdder`) so that
+// updating them never contends, even if a dump runs at the same time.
+//
+// `write()` dumps a snapshot to a file, as JSON if the file name ends in
+// `.json` and in the Prometheus text format otherwise. Lox writes it at exit.
+// The file is replaced atomically, so a scraper polling it never sees half a
+// dump.
+final class Metrics {
+  private Metrics() {}
+
+  static boolean enabled = false;
+
+  static final LongAdder environmentsCreated = new LongAdder();
+  static final LongAdder environmentsReused = new LongAdder();
+  static final LongAccumulator maxEnvironmentDepth =
+      new LongAccumulator(Math::max, 0);
+  static final LongAdder variablesDefined = new LongAdder();
+  static final LongAdder functionCalls = new LongAdder();
+  static final LongAdder nativeCalls = new LongAdder();
+  static final LongAdder runtimeErrors = new LongAdder();
+
+  // Nanoseconds spent in each phase of running a script.
+  enum Phase { SCAN, PARSE, RESOLVE, OPTIMIZE, EXECUTE }
+  private static final LongAdder[] phaseNanos =
+      new LongAdder[Phase.values().length];
+
+  static {
+    for (int i = 0; i < phaseNanos.length; ++i) {
+      phaseNanos[i] = new LongAdder();
+    }
+  }
+
+  // Allocation is measured on the thread that runs Lox code. That thread has
+  // usually finished by the time the exit dump runs, so the count is also
+  // saved after each run.
+  private static long interpreterThread = -1;
+  private static volatile long allocatedBytes = 0;
+
+  static void enable() {
+    enabled = true;
+    interpreterThread = Thread.currentThread().getId();
+  }
+
+  static void addPhase(Phase phase, long nanos) {
+    phaseNanos[phase.ordinal()].add(nanos);
+  }
+
+  static void recordAllocation() {
+    allocatedBytes = Math.max(allocatedBytes, threadAllocatedBytes());
+  }
+
+  static long phaseNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()].sum();
+  }
+
+  // Counts the hops from `environment` to the outermost local scope.
+  static void recordDepth(Environment environment) {
+    long depth = 0;
+    for (; environment != null; environment = environment.enclosing) {
+      ++depth;
+    }
+    maxEnvironmentDepth.accumulate(depth);
+  }
+
+  static synchronized void write(Path path) throws IOException {
+    Map<String, Number> snapshot = snapshot();
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (PrintWriter out = new PrintWriter(
+             Files.newBufferedWriter(temporary, StandardCharsets.UTF_8))) {
+      if (path.toString().endsWith(".json")) {
+        writeJson(out, snapshot);
+      } else {
+        writePrometheus(out, snapshot);
+      }
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Metric names follow Prometheus conventions: counters end in `_total` and
+  // durations are in seconds.
+  private static Map<String, Number> snapshot() {
+    Map<String, Number> metrics = new LinkedHashMap<>();
+    long created = environmentsCreated.sum();
+    double executeSeconds = phaseNanos(Phase.EXECUTE) / 1e9;
+    metrics.put("lox_environments_created_total", created);
+    metrics.put("lox_environments_reused_total", environmentsReused.sum());
+    metrics.put("lox_environments_created_per_second",
+                executeSeconds == 0 ? 0.0 : created / executeSeconds);
+    metrics.put("lox_environment_depth_max", maxEnvironmentDepth.get());
+    metrics.put("lox_variables_defined_total", variablesDefined.sum());
+    metrics.put("lox_function_calls_total", functionCalls.sum());
+    metrics.put("lox_native_calls_total", nativeCalls.sum());
+    metrics.put("lox_runtime_errors_total", runtimeErrors.sum());
+    for (Phase phase : Phase.values()) {
+      metrics.put("lox_" + phase.name().toLowerCase() + "_seconds_total",
+                  phaseNanos(phase) / 1e9);
+    }
+
+    metrics.put("lox_allocated_bytes_total",
+                Math.max(allocatedBytes, threadAllocatedBytes()));
+    long collections = 0;
+    long collectionMillis = 0;
+    for (GarbageCollectorMXBean collector :
+         ManagementFactory.getGarbageCollectorMXBeans()) {
+      collections += Math.max(0, collector.getCollectionCount());
+      collectionMillis += Math.max(0, collector.getCollectionTime());
+    }
+    metrics.put("lox_gc_collections_total", collections);
+    metrics.put("lox_gc_pause_seconds_total", collectionMillis / 1e3);
+    return metrics;
+  }
+
+  // Returns -1 if the thread is gone or the JVM can't measure it.
+  private static long threadAllocatedBytes() {
+    java.lang.management.ThreadMXBean threads =
+        ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean) ||
+        interpreterThread < 0)
+      return -1;
+    return ((com.sun.management.ThreadMXBean) threads)
+        .getThreadAllocatedBytes(interpreterThread);
+  }
+
+  private static void writeJson(PrintWriter out, Map<String, Number> metrics) {
+    out.println("{");
+    int remaining = metrics.size();
+    for (Map.Entry<String, Number> metric : metrics.entrySet()) {
+      out.println("  \"" + metric.getKey() + "\": " + metric.getValue() +
+                  (--remaining > 0 ? "," : ""));
+    }
+    out.println("}");
+  }
+
+  private static void writePrometheus(PrintWriter out,
+                                      Map<String, Number> metrics) {
+    for (Map.Entry<String, Number> metric : metrics.entrySet()) {
+      String name = metric.getKey();
+      String type = name.endsWith("_total") ? "counter" : "gauge";
+      out.println("# TYPE " + name + " " + type);
+      out.println(name + " " + metric.getValue());
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by a native function that was called with bad arguments. Natives
+// don't see the call's token, so whoever made the call turns this into a
+// `RuntimeError` that points at it.
+class NativeError extends RuntimeException {
+  NativeError(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+// The instruction set of the bytecode VM. Each instruction is a one-byte
+// opcode followed by its operands, if any. `u8` operands take one byte and
+// `u16` operands take two, high byte first.
+final class OpCode {
+  private OpCode() {}
+
+  static final byte CONSTANT = 0;       // u16 constant -> value
+  static final byte NIL = 1;            // -> nil
+  static final byte TRUE = 2;           // -> true
+  static final byte FALSE = 3;          // -> false
+  static final byte SHADOWED = 4;       // u16 declaration -> `var a;` value
+  static final byte POP = 5;            // value ->
+
+  static final byte GET_LOCAL = 6;      // u16 depth, slot and name -> value
+  static final byte SET_LOCAL = 7;      // u16 depth, u16 slot; value -> value
+  static final byte DEFINE_LOCAL = 8;   // u16 slot; value ->
+  static final byte GET_GLOBAL = 9;     // u16 name -> value
+  static final byte SET_GLOBAL = 10;    // u16 name; value -> value
+  static final byte DEFINE_GLOBAL = 11; // u16 name; value ->
+  static final byte DECLARE_GLOBAL = 12; // u16 name
+
+  static final byte EQUAL = 13;         // a, b -> bool
+  static final byte NOT_EQUAL = 14;     // a, b -> bool
+  static final byte GREATER = 15;       // a, b -> bool
+  static final byte GREATER_EQUAL = 16; // a, b -> bool
+  static final byte LESS = 17;          // a, b -> bool
+  static final byte LESS_EQUAL = 18;    // a, b -> bool
+  static final byte ADD = 19;           // a, b -> a + b
+  static final byte SUBTRACT = 20;      // a, b -> a - b
+  static final byte MULTIPLY = 21;      // a, b -> a * b
+  static final byte DIVIDE = 22;        // a, b -> a / b
+  static final byte NOT = 23;           // a -> !a
+  static final byte NEGATE = 24;        // a -> -a
+
+  static final byte PRINT = 25;         // value ->
+  static final byte JUMP = 26;          // u16 forward offset
+  static final byte JUMP_IF_FALSE = 27; // u16 forward offset; peeks condition
+  static final byte LOOP = 28;          // u16 backward offset
+
+  static final byte CALL = 29;          // u8 argc; callee, args... -> result
+  static final byte CLOSURE = 30;       // u16 function constant -> closure
+  static final byte RETURN = 31;        // value ->
+
+  static final byte ENTER_SCOPE = 32;   // u16 slot count, u8 recyclable
+  static final byte EXIT_SCOPE = 33;    // u8 recyclable
+
+  // A call followed by a return. A Lox callee replaces the current frame.
+  static final byte TAIL_CALL = 34;     // u8 argc; callee, args... ->
+}
@@ -0,0 +1,394 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites a resolved syntax tree before it runs. Pure operators whose
+// operands are literals are folded into a single literal, grouping
+// parentheses are dropped and branches that can never run are removed.
+//
+// It runs after the resolver so that dead code still gets checked for static
+// errors. Nodes are only rebuilt when one of their children changed, and
+// rebuilt nodes carry over whatever the resolver recorded on the original.
+// Anything that would raise a runtime error, like `1 / 0` or `-"a"`, is left
+// alone so the error still happens when, and if, the code runs.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+  // How many nodes the rewrites removed from the tree.
+  private int removedNodes = 0;
+
+  int removedNodes() {
+    return removedNodes;
+  }
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>();
+    boolean changed = false;
+    for (Stmt statement : statements) {
+      Stmt result = optimize(statement);
+      if (result != null)
+        optimized.add(result);
+      changed |= result != statement;
+    }
+    return changed ? optimized : statements;
+  }
+
+  Expr optimize(Expr expr) {
+    return expr.accept(this);
+  }
+
+  // Returns null if the statement can never have any effect. A rewritten
+  // statement keeps the line of the one it replaces.
+  private Stmt optimize(Stmt stmt) {
+    Stmt result = stmt.accept(this);
+    if (result != null && result.line == 0)
+      result.line = stmt.line;
+    return result;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = optimize(stmt.statements);
+    if (statements == stmt.statements)
+      return stmt;
+    Stmt.Block block = new Stmt.Block(statements);
+    block.slotCount = stmt.slotCount;
+    block.recyclable = stmt.recyclable;
+    return block;
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    return expression == stmt.expression ? stmt
+                                         : new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    List<Stmt> body = optimize(stmt.body);
+    if (body == stmt.body)
+      return stmt;
+    Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+    function.slot = stmt.slot;
+    function.slotCount = stmt.slotCount;
+    function.recyclable = stmt.recyclable;
+    return function;
+  }
+
+  // An `if` whose condition folded to a literal is replaced by the branch
+  // that runs, or by nothing at all.
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (condition instanceof Expr.Literal) {
+      boolean isTruthy =
+          Interpreter.isTruthy(((Expr.Literal) condition).value);
+      Stmt taken = isTruthy ? stmt.thenBranch : stmt.elseBranch;
+      Stmt skipped = isTruthy ? stmt.elseBranch : stmt.thenBranch;
+      removedNodes += 2 + (skipped == null ? 0 : count(skipped));
+      return taken == null ? null : optimize(taken);
+    }
+    Stmt thenBranch = optimizeBranch(stmt.thenBranch);
+    Stmt elseBranch =
+        stmt.elseBranch == null ? null : optimizeBranch(stmt.elseBranch);
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+        elseBranch == stmt.elseBranch)
+      return stmt;
+    return new Stmt.If(condition, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = optimize(stmt.expression);
+    return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null)
+      return stmt;
+    Expr value = optimize(stmt.value);
+    if (value == stmt.value)
+      return stmt;
+    Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+    result.tailCall = stmt.tailCall;
+    return result;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null)
+      return stmt;
+    Expr initializer = optimize(stmt.initializer);
+    if (initializer == stmt.initializer)
+      return stmt;
+    Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+    var.slot = stmt.slot;
+    return var;
+  }
+
+  // A loop whose condition is falsey from the start never runs. A loop that
+  // is always true is kept, since that's how `for (;;)` is spelled.
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = optimize(stmt.condition);
+    if (condition instanceof Expr.Literal &&
+        !Interpreter.isTruthy(((Expr.Literal) condition).value)) {
+      removedNodes += 2 + count(stmt.body);
+      return null;
+    }
+    Stmt body = optimizeBranch(stmt.body);
+    if (condition == stmt.condition && body == stmt.body)
+      return stmt;
+    return new Stmt.While(condition, body);
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = optimize(expr.value);
+    if (value == expr.value)
+      return expr;
+    Expr.Assign assign = new Expr.Assign(expr.name, value);
+    assign.depth = expr.depth;
+    assign.slot = expr.slot;
+    return assign;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+    if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+      Object value = fold(expr.operator, ((Expr.Literal) left).value,
+                          ((Expr.Literal) right).value);
+      if (value != NOT_CONSTANT) {
+        removedNodes += 2;
+        return new Expr.Literal(value);
+      }
+    }
+    if (left == expr.left && right == expr.right)
+      return expr;
+    Expr.Binary binary = new Expr.Binary(left, expr.operator, right);
+    binary.numericLeft = Resolver.isNumber(left);
+    binary.numericRight = Resolver.isNumber(right);
+    return binary;
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = optimize(expr.callee);
+    List<Expr> arguments = new ArrayList<>();
+    boolean changed = callee != expr.callee;
+    for (Expr argument : expr.arguments) {
+      Expr result = optimize(argument);
+      arguments.add(result);
+      changed |= result != argument;
+    }
+    return changed ? new Expr.Call(callee, expr.paren, arguments) : expr;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    ++removedNodes;
+    return optimize(expr.expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  // `and` and `or` evaluate to one of their operands, so a literal on the
+  // left decides which operand that is without evaluating anything.
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    if (left instanceof Expr.Literal) {
+      boolean isTruthy = Interpreter.isTruthy(((Expr.Literal) left).value);
+      if (isTruthy == (expr.operator.type == TokenType.OR)) {
+        removedNodes += 1 + count(expr.right);
+        return left;
+      }
+      removedNodes += 2;
+      return optimize(expr.right);
+    }
+    Expr right = optimize(expr.right);
+    if (left == expr.left && right == expr.right)
+      return expr;
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+    if (right instanceof Expr.Literal) {
+      Object operand = ((Expr.Literal) right).value;
+      if (expr.operator.type == TokenType.BANG) {
+        ++removedNodes;
+        return new Expr.Literal(!Interpreter.isTruthy(operand));
+      }
+      if (operand instanceof Double) {
+        ++removedNodes;
+        return new Expr.Literal(-(double) operand);
+      }
+    }
+    if (right == expr.right)
+      return expr;
+    Expr.Unary unary = new Expr.Unary(expr.operator, right);
+    unary.numericRight = Resolver.isNumber(right);
+    return unary;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  // Branches of `if` and `while` must be a statement, so a branch that
+  // optimizes away becomes an empty block.
+  private Stmt optimizeBranch(Stmt branch) {
+    Stmt result = optimize(branch);
+    if (result == null) {
+      result = new Stmt.Block(new ArrayList<>());
+      result.line = branch.line;
+    }
+    return result;
+  }
+
+  private static final Object NOT_CONSTANT = new Object();
+
+  // Computes what the interpreter would for a binary operator, or returns
+  // NOT_CONSTANT if it would raise a runtime error instead.
+  private static Object fold(Token operator, Object left, Object right) {
+    switch (operator.type) {
+      case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+      case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+      case PLUS:
+        try {
+          return Interpreter.genericAdd(operator, left, right);
+        } catch (RuntimeError error) {
+          return NOT_CONSTANT;
+        }
+      default: break;
+    }
+    if (!(left instanceof Double) || !(right instanceof Double))
+      return NOT_CONSTANT;
+    double a = (double) left;
+    double b = (double) right;
+    switch (operator.type) {
+      case GREATER: return a > b;
+      case GREATER_EQUAL: return a >= b;
+      case LESS: return a < b;
+      case LESS_EQUAL: return a <= b;
+      case MINUS: return a - b;
+      case STAR: return a * b;
+      case SLASH: return b == 0 ? NOT_CONSTANT : a / b;
+      default: return NOT_CONSTANT;
+    }
+  }
+
+  private static int count(Stmt stmt) {
+    return stmt.accept(new NodeCounter());
+  }
+
+  private static int count(Expr expr) {
+    return expr.accept(new NodeCounter());
+  }
+
+  // Counts the nodes in a subtree that's about to be dropped.
+  private static class NodeCounter
+      implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    private int count(List<Stmt> statements) {
+      int count = 0;
+      for (Stmt statement : statements) {
+        count += statement.accept(this);
+      }
+      return count;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      return 1 + count(stmt.statements);
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      return 1 + stmt.expression.accept(this);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      return 1 + count(stmt.body);
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      return 1 + stmt.condition.accept(this) + stmt.thenBranch.accept(this) +
+          (stmt.elseBranch == null ? 0 : stmt.elseBranch.accept(this));
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      return 1 + stmt.expression.accept(this);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      return 1 + (stmt.value == null ? 0 : stmt.value.accept(this));
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      return 1 + (stmt.initializer == null ? 0 : stmt.initializer.accept(this));
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      return 1 + stmt.condition.accept(this) + stmt.body.accept(this);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      return 1 + expr.value.accept(this);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      return 1 + expr.left.accept(this) + expr.right.accept(this);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      int count = 1 + expr.callee.accept(this);
+      for (Expr argument : expr.arguments) {
+        count += argument.accept(this);
+      }
+      return count;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return 1 + expr.expression.accept(this);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      return 1;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      return 1 + expr.left.accept(this) + expr.right.accept(this);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      return 1 + expr.right.accept(this);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return 1;
+    }
+  }
+}
@@ -7,19 +7,32 @@ import java.util.List;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
+  private final Scanner scanner;
+  private final CharSequence source;
+  // The parser never looks more than one token ahead or back, so it pulls
+  // tokens from the scanner as it goes and keeps just those two, in the slots
+  // of a two-token buffer. A `Token` object is only made for a token the tree
+  // keeps, like a name or an operator, or one an error message points at.
+  private final TokenBuffer tokens = new TokenBuffer(2);
+  private int previous = -1;
   private int current = 0;
+  // Whether the last expression statement may leave off its semicolon. The
+  // REPL prints the value of such an expression.
+  private boolean allowTrailingExpression = false;
+  // Time spent waiting on the scanner, only measured for `--metrics`.
+  long scanNanos = 0;
 
-  Parser(List<Token> tokens) {
-    this.tokens = tokens;
+  Parser(Scanner scanner) {
+    this.scanner = scanner;
+    this.source = scanner.source();
+    nextToken();
   }
 
-  Expr parseExpression() {
-    try {
-      return expression();
-    } catch (ParseError error) {
-      return null;
-    }
+  // Parses a line typed into the REPL. It's a list of statements, except
+  // that a final expression without a semicolon is printed.
+  List<Stmt> parseReplLine() {
+    allowTrailingExpression = true;
+    return parseStatements();
   }
 
   // program -> declaration* EOF ;
@@ -36,10 +49,11 @@ class Parser {
   //              | statement ;
   private Stmt declaration() {
     try {
+      int line = tokens.line(current);
       if (match(TokenType.VAR))
-        return varDeclaration();
+        return at(line, varDeclaration());
       if (match(TokenType.FUN))
-        return function("function");
+        return at(line, function("function"));
       return statement();
     } catch (ParseError error) {
       synchronize();
@@ -49,7 +63,7 @@ class Parser {
 
   // varDeclaration -> "var" IDENTIFIER ( "=" expression )? ";" ;
   private Stmt varDeclaration() {
-    Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+    Token name = consumeToken(TokenType.IDENTIFIER, "Expect variable name.");
     Expr initializer = match(TokenType.EQUAL) ? expression() : null;
     consume(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
     return new Stmt.Var(name, initializer);
@@ -58,15 +72,17 @@ class Parser {
   // funDeclartion -> "fun" function ;
   // function -> IDENTIFIER "(" parameters? ")" block ;
   private Stmt function(String kind) {
-    Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
-    consume(TokenType.LEFT_BRACE, "Expect '(' after " + kind + " name.");
+    Token name =
+        consumeToken(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+    consume(TokenType.LEFT_PAREN, "Expect '(' after " + kind + " name.");
     List<Token> parameters = new ArrayList<>();
-    if (!check(TokenType.RIGHT_BRACE)) {
+    if (!check(TokenType.RIGHT_PAREN)) {
       do {
         if (parameters.size() >= 255) {
-          error(peek(), "Can't have more than 255 parameters");
+          error(current, "Can't have more than 255 parameters");
         }
-        parameters.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+        parameters.add(
+            consumeToken(TokenType.IDENTIFIER, "Expect parameter name."));
       } while (match(TokenType.COMMA));
     }
     consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
@@ -79,20 +95,32 @@ class Parser {
   //            | ifStatement
   //            | whileStatement
   //            | forStatement
+  //            | returnStatement
   //            | exprStatement
   //            | block ;
   private Stmt statement() {
+    int line = tokens.line(current);
     if (match(TokenType.PRINT))
-      return printStatement();
+      return at(line, printStatement());
     if (match(TokenType.IF))
-      return ifStatement();
+      return at(line, ifStatement());
     if (match(TokenType.WHILE))
-      return whileStatement();
+      return at(line, whileStatement());
     if (match(TokenType.FOR))
-      return forStatement();
+      return at(line, forStatement());
+    if (match(TokenType.RETURN))
+      return at(line, returnStatement());
     if (match(TokenType.LEFT_BRACE))
-      return new Stmt.Block(block());
-    return expressionStatement();
+      return at(line, new Stmt.Block(block()));
+    return at(line, expressionStatement());
+  }
+
+  // Records the line a statement starts on. Statements the parser builds
+  // itself, like the pieces of a desugared `for`, may already have one.
+  private static Stmt at(int line, Stmt stmt) {
+    if (stmt.line == 0)
+      stmt.line = line;
+    return stmt;
   }
 
   // printStatement -> "print" expression ";" ;
@@ -126,15 +154,18 @@ class Parser {
   //                 expression? ";"
   //                 expression? ")" statement ;
   private Stmt forStatement() {
+    int line = tokens.line(previous);
     consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
     Stmt initializer =
         match(TokenType.SEMICOLON)
             ? null
-            : (match(TokenType.VAR) ? varDeclaration() : expressionStatement());
+            : at(line, match(TokenType.VAR) ? varDeclaration()
+                                            : expressionStatement());
     // If the condition is omitted, it'll be evaluated as a `true` expression.
     Expr condition =
         check(TokenType.SEMICOLON) ? new Expr.Literal(true) : expression();
     consume(TokenType.SEMICOLON, "Expect ';' after for loop condition");
+    int incrementLine = tokens.line(current);
     Expr increment = check(TokenType.RIGHT_PAREN) ? null : expression();
     consume(TokenType.RIGHT_PAREN, "Expect ')' after for clauses.");
     Stmt body = statement();
@@ -142,12 +173,12 @@ class Parser {
     // contains the original `body` followed by an expression statement that
     // evaluates the `increment`.
     if (increment != null) {
-      body =
-          new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+      Stmt step = at(incrementLine, new Stmt.Expression(increment));
+      body = at(line, new Stmt.Block(Arrays.asList(body, step)));
     }
     // Takes the `condition` and the `body` and build the loop using a primitive
     // `while` loop.
-    body = new Stmt.While(condition, body);
+    body = at(line, new Stmt.While(condition, body));
     // If there is an initializer, it runs once before the entire loop. We do
     // that by, again, replacing the whole statement with a block that runs the
     // initializer and then executes the loop.
@@ -157,9 +188,19 @@ class Parser {
     return body;
   }
 
+  // returnStatement -> "return" expression? ";" ;
+  private Stmt returnStatement() {
+    Token keyword = previous();
+    Expr value = check(TokenType.SEMICOLON) ? null : expression();
+    consume(TokenType.SEMICOLON, "Expect ';' after return value.");
+    return new Stmt.Return(keyword, value);
+  }
+
   // exprStatement -> expression ";" ;
   private Stmt expressionStatement() {
     Expr expr = expression();
+    if (allowTrailingExpression && isAtEnd())
+      return new Stmt.Print(expr);
     consume(TokenType.SEMICOLON, "Expect ';' after expr.");
     return new Stmt.Expression(expr);
   }
@@ -187,13 +228,18 @@ class Parser {
   private Expr assignment() {
     Expr expr = or();
     if (match(TokenType.EQUAL)) {
-      Token equals = previous();
+      // The '=' is only needed for the error, and its slot will have been
+      // reused by then.
+      int equals = tokens.start(previous);
+      int equalsLine = tokens.line(previous);
       Expr value = assignment();
       if (expr instanceof Expr.Variable) {
         Token name = ((Expr.Variable) expr).name;
         return new Expr.Assign(name, value);
       }
-      error(equals, "Invalid assignment target.");
+      Lox.error(new Token(TokenType.EQUAL, source, equals, equals + 1, null,
+                          equalsLine),
+                "Invalid assignment target.");
     }
     return expr;
   }
@@ -294,12 +340,13 @@ class Parser {
     if (!check(TokenType.RIGHT_PAREN)) {
       do {
         if (arguments.size() >= 255) {
-          error(peek(), "Can't have more than 255 arguments.");
+          error(current, "Can't have more than 255 arguments.");
         }
         arguments.add(expression());
       } while (match(TokenType.COMMA));
     }
-    Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+    Token paren =
+        consumeToken(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
     return new Expr.Call(callee, paren, arguments);
   }
 
@@ -308,8 +355,10 @@ class Parser {
   //          | "(" expression ")"
   //          | IDENTIFIER ;
   private Expr primary() {
-    if (match(TokenType.NUMBER, TokenType.STRING))
-      return new Expr.Literal(previous().literal);
+    if (match(TokenType.NUMBER))
+      return new Expr.Literal(tokens.number(previous));
+    if (match(TokenType.STRING))
+      return new Expr.Literal(tokens.string(previous, source));
 
     if (match(TokenType.TRUE))
       return new Expr.Literal(true);
@@ -329,54 +378,82 @@ class Parser {
     if (match(TokenType.IDENTIFIER))
       return new Expr.Variable(previous());
 
-    throw error(peek(), "Expect expression.");
+    throw error(current, "Expect expression.");
+  }
+
+  private boolean match(TokenType type) {
+    if (!check(type))
+      return false;
+    advance();
+    return true;
+  }
+
+  private boolean match(TokenType first, TokenType second) {
+    return match(first) || match(second);
   }
 
   private boolean match(TokenType... types) {
     for (TokenType type : types) {
-      if (check(type)) {
-        advance(); // Consumes the token.
+      if (match(type))
         return true;
-      }
     }
     return false;
   }
 
-  private Token consume(TokenType type, String message) {
-    if (check(type))
-      return advance();
-    throw error(peek(), message);
+  private void consume(TokenType type, String message) {
+    if (!check(type))
+      throw error(current, message);
+    advance();
+  }
+
+  // Consumes a token the tree keeps and returns it.
+  private Token consumeToken(TokenType type, String message) {
+    consume(type, message);
+    return previous();
   }
 
   private boolean check(TokenType type) {
     if (isAtEnd())
       return false;
-    return peek().type == type;
+    return tokens.type(current) == type;
   }
 
-  private Token advance() {
-    if (!isAtEnd())
-      ++current;
-    return previous();
+  // Scanning is interleaved with parsing, so this is where scan time is
+  // measured.
+  private void nextToken() {
+    if (!Metrics.enabled) {
+      scanner.scan(tokens, current);
+      return;
+    }
+    long start = System.nanoTime();
+    scanner.scan(tokens, current);
+    long elapsed = System.nanoTime() - start;
+    Metrics.addPhase(Metrics.Phase.SCAN, elapsed);
+    scanNanos += elapsed;
+  }
+
+  // Moves the current token to `previous` and scans the next one into the
+  // other slot.
+  private void advance() {
+    if (!isAtEnd()) {
+      previous = current;
+      current = 1 - current;
+      nextToken();
+    }
   }
 
   private boolean isAtEnd() {
-    return peek().type == TokenType.EOF;
-  }
-
-  // Returns the current token we have yet to consume.
-  private Token peek() {
-    return tokens.get(current);
+    return tokens.type(current) == TokenType.EOF;
   }
 
   // Returns the most recently consumed token. Makes it easier to use `match()`
   // and then access the just-matched token.
   private Token previous() {
-    return tokens.get(current - 1);
+    return tokens.token(previous, source);
   }
 
-  private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+  private ParseError error(int token, String message) {
+    Lox.error(tokens.token(token, source), message);
     return new ParseError();
   }
 
@@ -384,10 +461,10 @@ class Parser {
     advance();
 
     while (!isAtEnd()) {
-      if (previous().type == TokenType.SEMICOLON)
+      if (tokens.type(previous) == TokenType.SEMICOLON)
         return;
 
-      switch (peek().type) {
+      switch (tokens.type(current)) {
         case CLASS:
         case FUN:
         case VAR:
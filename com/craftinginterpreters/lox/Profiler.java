@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+// A sampling profiler for Lox code. As an `ExecutionListener`, it keeps a
+// shadow stack of Lox calls, and a background thread periodically records
+// what's on it.
+// The result is written in the collapsed-stack format flame graph tools read:
+// one line per distinct stack, frames from outermost to innermost separated by
+// ';', followed by how many samples saw that stack. Each frame but the last is
+// `name:line`, where `line` is the line of the call into the next frame.
+//
+// The stack is written by the interpreter thread and read by the sampler
+// without locking. A sample taken mid-update can be off by a frame, which
+// doesn't matter when aggregated, and keeps the interpreter's cost to a few
+// array writes per call.
+class Profiler implements ExecutionListener {
+  private static final String SCRIPT = "<script>";
+
+  private final long intervalNanos;
+  private String[] names = new String[64];
+  private int[] lines = new int[64];
+  private volatile int depth = 1;
+  private Thread sampler = null;
+  // Only touched by the sampler thread until it has been joined.
+  private final Map<String, Integer> samples = new TreeMap<>();
+
+  Profiler(long intervalNanos) {
+    this.intervalNanos = intervalNanos;
+    names[0] = SCRIPT;
+  }
+
+  @Override
+  public void enterCall(LoxCallable callee, Token paren) {
+    String name = callee instanceof LoxFunction
+                      ? ((LoxFunction) callee).name()
+                      : callee.toString();
+    int top = depth;
+    if (top == names.length) {
+      names = Arrays.copyOf(names, top * 2);
+      lines = Arrays.copyOf(lines, top * 2);
+    }
+    lines[top - 1] = paren.line;
+    names[top] = name;
+    depth = top + 1;
+  }
+
+  @Override
+  public void exitCall(LoxCallable callee, Token paren) {
+    depth = depth - 1;
+  }
+
+  void start() {
+    sampler = new Thread(this::sampleUntilInterrupted, "lox-profiler");
+    sampler.setDaemon(true);
+    sampler.start();
+  }
+
+  void stop() {
+    sampler.interrupt();
+    try {
+      sampler.join();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void write(Path path) throws IOException {
+    try (PrintWriter out = new PrintWriter(
+             Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+      for (Map.Entry<String, Integer> stack : samples.entrySet()) {
+        out.println(stack.getKey() + " " + stack.getValue());
+      }
+    }
+  }
+
+  private void sampleUntilInterrupted() {
+    long next = System.nanoTime() + intervalNanos;
+    while (!Thread.currentThread().isInterrupted()) {
+      long wait = next - System.nanoTime();
+      if (wait > 0) {
+        try {
+          Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        } catch (InterruptedException error) {
+          return;
+        }
+      }
+      next += intervalNanos;
+      sample();
+    }
+  }
+
+  private void sample() {
+    // The arrays may be replaced by a concurrent `enter()`. Never read past
+    // the end of the copies we hold.
+    String[] names = this.names;
+    int[] lines = this.lines;
+    int top = Math.min(depth, Math.min(names.length, lines.length));
+    StringBuilder stack = new StringBuilder();
+    for (int i = 0; i < top; ++i) {
+      if (i > 0)
+        stack.append(';');
+      stack.append(names[i]);
+      if (i < top - 1)
+        stack.append(':').append(lines[i]);
+    }
+    samples.merge(stack.toString(), 1, Integer::sum);
+  }
+}
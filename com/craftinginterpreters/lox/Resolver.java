@@ -0,0 +1,279 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A static pass that runs between the parser and the interpreter. It walks the
+// tree once and, for every local variable, records how many scopes out it was
+// declared (`depth`) and which slot it occupies in that scope (`slot`). Names
+// it can't find in any local scope are left with a depth of -1 and treated as
+// globals.
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private enum FunctionType { NONE, FUNCTION }
+
+  // Each map goes from a variable's name to its slot in that scope. Only local
+  // block scopes are tracked. The global scope isn't tracked here.
+  private final List<Map<Symbol, Integer>> scopes = new ArrayList<>();
+  private FunctionType currentFunction = FunctionType.NONE;
+  // Counts function declarations seen so far. If it doesn't change while a
+  // scope is resolved, no closure can capture that scope's environment.
+  private int functionCount = 0;
+
+  void resolve(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      resolve(statement);
+    }
+  }
+
+  void resolve(Expr expr) {
+    expr.accept(this);
+  }
+
+  // A block that doesn't declare anything doesn't get a scope at all. Its
+  // statements run directly in the enclosing environment, so it also doesn't
+  // count as a hop when resolving the variables used inside it.
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    if (!declaresLocals(stmt.statements)) {
+      resolve(stmt.statements);
+      return null;
+    }
+    int functionsBefore = functionCount;
+    beginScope();
+    resolve(stmt.statements);
+    stmt.slotCount = endScope();
+    stmt.recyclable = functionCount == functionsBefore;
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    resolve(stmt.expression);
+    return null;
+  }
+
+  // The name is declared before the body is resolved. This lets a function
+  // recursively refer to itself inside its own body.
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    ++functionCount;
+    stmt.slot = declare(stmt.name);
+    resolveFunction(stmt, FunctionType.FUNCTION);
+    return null;
+  }
+
+  // Unlike the interpreter, both branches are resolved since either one could
+  // be reached at runtime.
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    resolve(stmt.condition);
+    resolve(stmt.thenBranch);
+    if (stmt.elseBranch != null)
+      resolve(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    resolve(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (currentFunction == FunctionType.NONE) {
+      Lox.error(stmt.keyword, "Can't return from top-level code.");
+    }
+    if (stmt.value != null)
+      resolve(stmt.value);
+    // Nothing is left to do in this function once the call returns, so the
+    // engines can make it in place of the current call.
+    stmt.tailCall = stmt.value instanceof Expr.Call;
+    return null;
+  }
+
+  // The initializer is resolved before the name is declared, so `var a = a;`
+  // still refers to the outer `a`, the same as it did when the interpreter
+  // looked names up dynamically.
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      resolve(stmt.initializer);
+    } else {
+      // A local declared without a value reads through to the variable it
+      // shadows until it's assigned. In the same scope, that's itself.
+      int[] location = resolveLocal(stmt.name);
+      if (location != null) {
+        stmt.shadowDepth = location[0];
+        stmt.shadowSlot = location[1];
+      }
+    }
+    stmt.slot = declare(stmt.name);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    resolve(stmt.condition);
+    resolve(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    resolve(expr.value);
+    int[] location = resolveLocal(expr.name);
+    if (location != null) {
+      expr.depth = location[0];
+      expr.slot = location[1];
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    expr.numericLeft = isNumber(expr.left);
+    expr.numericRight = isNumber(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    resolve(expr.callee);
+    for (Expr argument : expr.arguments) {
+      resolve(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    resolve(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    resolve(expr.right);
+    expr.numericRight = isNumber(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    int[] location = resolveLocal(expr.name);
+    if (location != null) {
+      expr.depth = location[0];
+      expr.slot = location[1];
+    }
+    return null;
+  }
+
+  // Returns true if evaluating `expr` can only produce a number, or fail with a
+  // runtime error. The interpreter evaluates those expressions without boxing
+  // their intermediate results. Operands are resolved before their parents, so
+  // this never has to look further than a node's direct children.
+  static boolean isNumber(Expr expr) {
+    if (expr instanceof Expr.Literal)
+      return ((Expr.Literal) expr).value instanceof Double;
+    if (expr instanceof Expr.Grouping)
+      return isNumber(((Expr.Grouping) expr).expression);
+    if (expr instanceof Expr.Unary)
+      return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      switch (binary.operator.type) {
+        case MINUS:
+        case SLASH:
+        case STAR: return true;
+        // `+` also concatenates strings, so it's only known to produce a number
+        // when both of its operands do.
+        case PLUS: return binary.numericLeft && binary.numericRight;
+        default: return false;
+      }
+    }
+    return false;
+  }
+
+  private void resolve(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  // Parameters and the top-level locals of the body share a single scope, so
+  // a call only needs to allocate one environment.
+  private void resolveFunction(Stmt.Function function, FunctionType type) {
+    FunctionType enclosingFunction = currentFunction;
+    currentFunction = type;
+
+    int functionsBefore = functionCount;
+    beginScope();
+    for (Token param : function.params) {
+      declare(param);
+    }
+    resolve(function.body);
+    function.slotCount = endScope();
+    function.recyclable = functionCount == functionsBefore;
+
+    currentFunction = enclosingFunction;
+  }
+
+  private static boolean declaresLocals(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Var || statement instanceof Stmt.Function)
+        return true;
+    }
+    return false;
+  }
+
+  private void beginScope() {
+    scopes.add(new HashMap<Symbol, Integer>());
+  }
+
+  // Returns the number of slots the scope needs at runtime.
+  private int endScope() {
+    return scopes.remove(scopes.size() - 1).size();
+  }
+
+  // Adds the variable to the innermost scope and returns its slot, or -1 if
+  // we're at the top level. Redeclaring a name in the same scope reuses its
+  // slot.
+  private int declare(Token name) {
+    if (scopes.isEmpty())
+      return -1;
+    Map<Symbol, Integer> scope = scopes.get(scopes.size() - 1);
+    Integer slot = scope.get(name.symbol);
+    if (slot == null) {
+      slot = scope.size();
+      scope.put(name.symbol, slot);
+    }
+    return slot;
+  }
+
+  // Starts at the innermost scope and works outwards, looking in each map for
+  // a matching name. Returns `{depth, slot}`, or null if the name is global.
+  private int[] resolveLocal(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; --i) {
+      Integer slot = scopes.get(i).get(name.symbol);
+      if (slot != null) {
+        return new int[] {scopes.size() - 1 - i, slot};
+      }
+    }
+    return null;
+  }
+}
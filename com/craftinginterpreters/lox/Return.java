@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+// Unwinds the interpreter back to the call that began executing the body.
+// We're using exceptions for control flow, so the JVM stack-trace machinery is
+// turned off.
+class Return extends RuntimeException {
+  final Object value;
+
+  Return(Object value) {
+    super(null, null, false, false);
+    this.value = value;
+  }
+}
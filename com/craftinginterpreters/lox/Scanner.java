@@ -1,51 +1,47 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 class Scanner {
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and", TokenType.AND);
-    keywords.put("class", TokenType.CLASS);
-    keywords.put("else", TokenType.ELSE);
-    keywords.put("false", TokenType.FALSE);
-    keywords.put("for", TokenType.FOR);
-    keywords.put("fun", TokenType.FUN);
-    keywords.put("if", TokenType.IF);
-    keywords.put("nil", TokenType.NIL);
-    keywords.put("or", TokenType.OR);
-    keywords.put("print", TokenType.PRINT);
-    keywords.put("return", TokenType.RETURN);
-    keywords.put("super", TokenType.SUPER);
-    keywords.put("this", TokenType.THIS);
-    keywords.put("true", TokenType.TRUE);
-    keywords.put("var", TokenType.VAR);
-    keywords.put("while", TokenType.WHILE);
-  }
-
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  // Integers with at most this many digits are below 2^53, so accumulating
+  // them in a long and converting gives exactly what `parseDouble()` would.
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  // Either a String or a `Utf8Source`. Lexemes are only copied out of it when
+  // they're needed.
+  private final CharSequence source;
+  // Where `scanToken()` writes the token it produces, and that token's type.
+  // Whitespace and comments don't produce one, and leave the type null.
+  private TokenBuffer tokens = null;
+  private int index = 0;
+  private TokenType scanned = null;
   private int start = 0;   // first char in the lexeme being scanned
   private int current = 0; // the char currently being considered
   private int line = 1;    // tracks the line number
 
-  Scanner(String source) {
+  Scanner(CharSequence source) {
     this.source = source;
   }
 
-  List<Token> scanTokens() {
+  CharSequence source() {
+    return source;
+  }
+
+  // Scans just far enough to find the next token, writes it into `tokens` at
+  // `index` and returns its type. The parser pulls tokens one at a time, so
+  // the whole token list never exists at once, and no `Token` object is made
+  // unless the parser asks for one. Once the source is used up, this keeps
+  // returning EOF.
+  TokenType scan(TokenBuffer tokens, int index) {
+    this.tokens = tokens;
+    this.index = index;
     while (!isAtEnd()) {
       start = current;
+      scanned = null;
       scanToken();
+      if (scanned != null)
+        return scanned;
     }
-
-    tokens.add(new Token(TokenType.EOF, "", null, line));
-    return tokens;
+    tokens.set(index, TokenType.EOF, current, current, line);
+    return TokenType.EOF;
   }
 
   private void scanToken() {
@@ -105,6 +101,11 @@ class Scanner {
           identifier();
         } else {
           Lox.error(line, "Unexpected character.");
+          // Report a multi-byte UTF-8 character once, not once per byte.
+          if (source instanceof Utf8Source) {
+            while (Utf8Source.isContinuation(peek()))
+              advance();
+          }
         }
         break;
     }
@@ -125,9 +126,9 @@ class Scanner {
     // The closing ".
     advance();
 
-    // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
-    addToken(TokenType.STRING, value);
+    // The lexeme keeps its quotes. The value is only copied out once the
+    // parser makes a literal of it.
+    addToken(TokenType.STRING);
   }
 
   private void number() {
@@ -135,28 +136,89 @@ class Scanner {
       advance();
 
     // Look for a fractional part.
+    boolean integer = true;
     if (peek() == '.' && isDigit(peekNext())) {
       // Consume the "."
       advance();
+      integer = false;
 
       while (isDigit(peek()))
         advance();
     }
 
-    addToken(TokenType.NUMBER,
-             Double.parseDouble(source.substring(start, current)));
+    addToken(TokenType.NUMBER);
+    double value = integer && current - start <= MAX_EXACT_DIGITS
+                       ? integerValue()
+                       : Double.parseDouble(
+                             source.subSequence(start, current).toString());
+    tokens.setNumber(index, value);
+  }
+
+  private double integerValue() {
+    long value = 0;
+    for (int i = start; i < current; ++i) {
+      value = value * 10 + (source.charAt(i) - '0');
+    }
+    return value;
   }
 
   private void identifier() {
     while (isAlphaNumeric(peek()))
       advance();
 
-    String text = source.substring(start, current);
-    // Checks to see if it matches anything in the `keywords` map. If so, we use
-    // that keyword's token type. Otherwise, it's a regular user-defined
-    // identifier.
-    TokenType type = keywords.getOrDefault(text, TokenType.IDENTIFIER);
-    addToken(type);
+    // Checks to see if it's a keyword. If so, we use that keyword's token type.
+    // Otherwise, it's a regular user-defined identifier. It's interned once
+    // the parser asks for its token.
+    addToken(keywordType());
+  }
+
+  // Classifies the identifier straight from the source, without copying it
+  // out. A switch on the first character (and the second, where keywords
+  // share a first letter) leaves at most one keyword to compare against.
+  private TokenType keywordType() {
+    switch (source.charAt(start)) {
+      case 'a': return checkKeyword(1, "nd", TokenType.AND);
+      case 'c': return checkKeyword(1, "lass", TokenType.CLASS);
+      case 'e': return checkKeyword(1, "lse", TokenType.ELSE);
+      case 'f':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'a': return checkKeyword(2, "lse", TokenType.FALSE);
+            case 'o': return checkKeyword(2, "r", TokenType.FOR);
+            case 'u': return checkKeyword(2, "n", TokenType.FUN);
+          }
+        }
+        break;
+      case 'i': return checkKeyword(1, "f", TokenType.IF);
+      case 'n': return checkKeyword(1, "il", TokenType.NIL);
+      case 'o': return checkKeyword(1, "r", TokenType.OR);
+      case 'p': return checkKeyword(1, "rint", TokenType.PRINT);
+      case 'r': return checkKeyword(1, "eturn", TokenType.RETURN);
+      case 's': return checkKeyword(1, "uper", TokenType.SUPER);
+      case 't':
+        if (current - start > 1) {
+          switch (source.charAt(start + 1)) {
+            case 'h': return checkKeyword(2, "is", TokenType.THIS);
+            case 'r': return checkKeyword(2, "ue", TokenType.TRUE);
+          }
+        }
+        break;
+      case 'v': return checkKeyword(1, "ar", TokenType.VAR);
+      case 'w': return checkKeyword(1, "hile", TokenType.WHILE);
+    }
+    return TokenType.IDENTIFIER;
+  }
+
+  // Returns `type` if the rest of the identifier, from `offset` on, is exactly
+  // `rest`.
+  private TokenType checkKeyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length())
+      return TokenType.IDENTIFIER;
+    for (int i = 0; i < rest.length(); ++i) {
+      if (source.charAt(start + offset + i) != rest.charAt(i))
+        return TokenType.IDENTIFIER;
+    }
+    return type;
   }
 
   // When we reach, for example, '!', we jump to its switch case. That means we
@@ -205,11 +267,7 @@ class Scanner {
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
-  }
-
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.set(index, type, start, current, line);
+    scanned = type;
   }
 }
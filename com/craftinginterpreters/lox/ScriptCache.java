@@ -0,0 +1,86 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+// An on-disk cache of resolved syntax trees, so running an unchanged script
+// skips scanning, parsing, resolving and optimizing.
+//
+// Entries are named after a SHA-256 hash of the script's source, so an edited
+// script simply misses. Each entry also starts with the format version and
+// one written by a different version of jlox is treated as a miss and
+// overwritten. The cache is only an accelerator: any problem reading or
+// writing it falls back to compiling the source.
+class ScriptCache {
+  private final Path directory;
+  // The optimizer changes the tree, so optimized and unoptimized trees of the
+  // same script are cached separately.
+  private final boolean optimized;
+  // The same bytes can decode to different string literals in different
+  // charsets, so the charset is part of the key too.
+  private final Charset charset;
+
+  ScriptCache(Path directory, boolean optimized, Charset charset) {
+    this.directory = directory;
+    this.optimized = optimized;
+    this.charset = charset;
+  }
+
+  // Returns null on a miss.
+  List<Stmt> load(ByteBuffer source) {
+    Path entry = entry(source);
+    if (!Files.isRegularFile(entry))
+      return null;
+    try {
+      return AstReader.read(Files.readAllBytes(entry));
+    } catch (IOException error) {
+      return null;
+    }
+  }
+
+  // Writes to a temporary file first and moves it into place, so a process
+  // running the same script concurrently never reads a partial entry.
+  void store(ByteBuffer source, List<Stmt> statements) {
+    try {
+      Files.createDirectories(directory);
+      Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+      try {
+        Files.write(temporary, AstWriter.write(statements));
+        Files.move(temporary, entry(source),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    } catch (IOException error) {
+      // Leave the script uncached.
+    }
+  }
+
+  private Path entry(ByteBuffer source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException error) {
+      // Every Java platform is required to support SHA-256.
+      throw new AssertionError(error);
+    }
+    digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    digest.update(source.duplicate());
+    StringBuilder name = new StringBuilder();
+    for (byte b : digest.digest()) {
+      name.append(String.format("%02x", b));
+    }
+    name.append(optimized ? ".lxc" : ".unoptimized.lxc");
+    return directory.resolve(name.toString());
+  }
+}
@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+// The state of a self-specializing expression node. A node starts out
+// UNINITIALIZED. The first time it's evaluated, the interpreter rewrites it to
+// the specialization that fits the values it saw. If a later evaluation breaks
+// that assumption, the node falls back to GENERIC for good, so a node changes
+// state at most twice.
+enum Specialization {
+  UNINITIALIZED,
+
+  // `+` where both operands have been numbers.
+  NUMBER_ADD,
+  // `+` where both operands have been strings.
+  STRING_CONCAT,
+  // `!`, `and` or `or` whose operand has always been a Boolean, so truthiness
+  // is just the value itself.
+  BOOLEAN,
+
+  // A variable declared in the innermost scope.
+  LOCAL_SLOT_READ,
+  // A variable declared in an enclosing local scope.
+  ENCLOSING_SLOT_READ,
+  // A variable the resolver couldn't find in any local scope.
+  GLOBAL_READ,
+
+  // No assumptions. The node does all of its type checks every time.
+  GENERIC
+}
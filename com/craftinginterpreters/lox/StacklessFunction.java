@@ -0,0 +1,35 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A function closed over the environment it was declared in. This is
+// `StacklessInterpreter`'s counterpart of `LoxFunction`.
+class StacklessFunction implements LoxCallable {
+  final Stmt.Function declaration;
+  final Environment closure;
+  private final StacklessInterpreter interpreter;
+
+  StacklessFunction(Stmt.Function declaration, Environment closure,
+                    StacklessInterpreter interpreter) {
+    this.declaration = declaration;
+    this.closure = closure;
+    this.interpreter = interpreter;
+  }
+
+  @Override
+  public int arity() {
+    return declaration.params.size();
+  }
+
+  // Only used when Java code calls back into Lox. Calls from Lox code are
+  // handled by `StacklessInterpreter` without going through here.
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return this.interpreter.call(this, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return "<fn " + declaration.name.lexeme() + ">";
+  }
+}
@@ -0,0 +1,487 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Runs the syntax tree like `Interpreter`, but without recursing on the Java
+// stack. What the tree-walker keeps in Java frames lives in two arrays on the
+// heap instead: a control stack of the nodes that are still to be finished,
+// each with the step it's on, and a stack of the values that expressions have
+// produced so far. A Lox call pushes a marker and the callee's body instead of
+// calling into Java, so however deeply calls and expressions nest, a thread
+// running Lox code this way only needs a small, fixed Java stack.
+//
+// Each visit method runs one step of its node. It either pushes the node back
+// with its next step and then the child that has to be evaluated first, or it
+// finishes the node, leaving an expression's value on the value stack.
+class StacklessInterpreter
+    implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // Marks a call in tail position. See `call()`.
+  private static final Object TAIL = new Object();
+
+  private final Interpreter interpreter;
+  private final GlobalEnvironment globals;
+  private final EnvironmentPool environmentPool = new EnvironmentPool();
+  private Environment environment = null;
+
+  // The control stack. An entry is a node or a list of statements, the step
+  // it's on, and whatever it needs to remember until then: the environment a
+  // block or call restores when it ends, or `TAIL`. A call's entry is the
+  // `StacklessFunction` being called, underneath its body.
+  private Object[] nodes = new Object[64];
+  private int[] steps = new int[64];
+  private Object[] saved = new Object[64];
+  private int top = 0;
+  private Object[] values = new Object[64];
+  private int valueTop = 0;
+  // The step and saved value of the entry being run.
+  private int step;
+  private Object savedValue;
+  // Calls in progress. See `Interpreter.maxCallDepth`.
+  private int depth = 0;
+
+  StacklessInterpreter(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    this.globals = interpreter.globalEnvironment;
+  }
+
+  void interpret(List<Stmt> statements) {
+    push(statements, 0, null);
+    try {
+      run(0);
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      // Discard whatever the failed script left behind.
+      Arrays.fill(nodes, 0, top, null);
+      Arrays.fill(saved, 0, top, null);
+      Arrays.fill(values, 0, valueTop, null);
+      top = 0;
+      valueTop = 0;
+      depth = 0;
+      environment = null;
+    }
+  }
+
+  // Calls a function from Java code, for example on a spawned thread. Runs
+  // until the call's entry has been popped again.
+  Object call(StacklessFunction function, List<Object> arguments) {
+    int base = top;
+    pushValue(function);
+    for (Object argument : arguments) {
+      pushValue(argument);
+    }
+    enter(function, arguments.size());
+    run(base);
+    return popValue();
+  }
+
+  private void run(int base) {
+    while (top > base) {
+      int index = --top;
+      Object node = nodes[index];
+      step = steps[index];
+      savedValue = saved[index];
+      nodes[index] = null;
+      saved[index] = null;
+      if (node instanceof Expr) {
+        ((Expr) node).accept(this);
+      } else if (node instanceof Stmt) {
+        ((Stmt) node).accept(this);
+      } else if (node instanceof List) {
+        @SuppressWarnings("unchecked")
+        List<Stmt> statements = (List<Stmt>) node;
+        executeNext(statements, step);
+      } else {
+        // The body ran off its end without a `return`.
+        exitCall((StacklessFunction) node, (Environment) savedValue);
+        pushValue(null);
+      }
+    }
+  }
+
+  // Runs the statement at `index` and leaves the rest for after it.
+  private void executeNext(List<Stmt> statements, int index) {
+    if (index >= statements.size())
+      return;
+    if (index + 1 < statements.size())
+      push(statements, index + 1, null);
+    push(statements.get(index), 0, null);
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    if (step == 0) {
+      push(expr, 1, null);
+      push(expr.value, 0, null);
+      return null;
+    }
+    Object value = values[valueTop - 1];
+    if (expr.depth < 0) {
+      globals.assign(expr.name, value);
+    } else {
+      environment.assignAt(expr.depth, expr.slot, value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    if (step < 2) {
+      push(expr, step + 1, null);
+      push(step == 0 ? expr.left : expr.right, 0, null);
+      return null;
+    }
+    Object right = popValue();
+    Object left = popValue();
+    pushValue(binary(expr.operator, left, right));
+    return null;
+  }
+
+  // Steps 0 to n evaluate the callee and then each of the n arguments. The
+  // last step makes the call.
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    int count = expr.arguments.size();
+    if (step <= count) {
+      push(expr, step + 1, savedValue);
+      push(step == 0 ? expr.callee : expr.arguments.get(step - 1), 0, null);
+      return null;
+    }
+    call(expr.paren, count, savedValue == TAIL);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    push(expr.expression, 0, null);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    pushValue(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    if (step == 0) {
+      push(expr, 1, null);
+      push(expr.left, 0, null);
+      return null;
+    }
+    boolean truthy = Interpreter.isTruthy(values[valueTop - 1]);
+    if (expr.operator.type == TokenType.OR ? truthy : !truthy)
+      return null;
+    popValue();
+    push(expr.right, 0, null);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    if (step == 0) {
+      push(expr, 1, null);
+      push(expr.right, 0, null);
+      return null;
+    }
+    Object right = popValue();
+    if (expr.operator.type == TokenType.BANG) {
+      pushValue(!Interpreter.isTruthy(right));
+      return null;
+    }
+    if (!(right instanceof Double))
+      throw new RuntimeError(expr.operator, "Operand must be a number.");
+    pushValue(-(double) right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    if (expr.depth < 0) {
+      pushValue(globals.get(expr.name));
+    } else {
+      pushValue(environment.getAt(expr.depth, expr.slot, expr.name));
+    }
+    return null;
+  }
+
+  // Same as `Interpreter.visitBlockStmt()`. The block's entry stays below
+  // its statements to restore the enclosing environment at step 1.
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    if (step == 1) {
+      exitBlock(stmt, (Environment) savedValue);
+      return null;
+    }
+    if (stmt.slotCount == 0) {
+      push(stmt.statements, 0, null);
+      return null;
+    }
+    Environment block =
+        stmt.recyclable
+            ? environmentPool.acquire(environment, stmt.slotCount)
+            : new Environment(environment, stmt.slotCount);
+    push(stmt, 1, environment);
+    push(stmt.statements, 0, null);
+    environment = block;
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    if (step == 0) {
+      push(stmt, 1, null);
+      push(stmt.expression, 0, null);
+      return null;
+    }
+    popValue();
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    StacklessFunction function =
+        new StacklessFunction(stmt, environment, this);
+    if (stmt.slot < 0) {
+      globals.define(stmt.name.symbol, function);
+    } else {
+      environment.define(stmt.slot, function);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    if (step == 0) {
+      push(stmt, 1, null);
+      push(stmt.condition, 0, null);
+      return null;
+    }
+    if (Interpreter.isTruthy(popValue())) {
+      push(stmt.thenBranch, 0, null);
+    } else if (stmt.elseBranch != null) {
+      push(stmt.elseBranch, 0, null);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    if (step == 0) {
+      push(stmt, 1, null);
+      push(stmt.expression, 0, null);
+      return null;
+    }
+    System.out.println(Interpreter.stringify(popValue()));
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      returnValue(null);
+    } else if (stmt.tailCall) {
+      push(stmt.value, 0, TAIL);
+    } else if (step == 0) {
+      push(stmt, 1, null);
+      push(stmt.value, 0, null);
+    } else {
+      returnValue(popValue());
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer == null) {
+      if (stmt.slot >= 0) {
+        environment.define(stmt.slot, environment.shadowedValue(stmt, globals));
+      } else {
+        globals.addUndefinedVariable(stmt.name.symbol);
+      }
+      return null;
+    }
+    if (step == 0) {
+      push(stmt, 1, null);
+      push(stmt.initializer, 0, null);
+      return null;
+    }
+    if (stmt.slot >= 0) {
+      environment.define(stmt.slot, popValue());
+    } else {
+      globals.define(stmt.name.symbol, popValue());
+    }
+    return null;
+  }
+
+  // Step 1 runs the body and then pushes the loop back at step 0 to test the
+  // condition again.
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    if (step == 0) {
+      push(stmt, 1, null);
+      push(stmt.condition, 0, null);
+      return null;
+    }
+    if (Interpreter.isTruthy(popValue())) {
+      push(stmt, 0, null);
+      push(stmt.body, 0, null);
+    }
+    return null;
+  }
+
+  // The same results and errors as `Interpreter.visitBinaryExpr()`, without
+  // its unboxed fast paths.
+  private static Object binary(Token operator, Object left, Object right) {
+    switch (operator.type) {
+      case BANG_EQUAL: return !Interpreter.isEqual(left, right);
+      case EQUAL_EQUAL: return Interpreter.isEqual(left, right);
+      case PLUS: return Interpreter.genericAdd(operator, left, right);
+      default: break;
+    }
+    if (!(left instanceof Double) || !(right instanceof Double))
+      throw new RuntimeError(operator, "Operands must be numbers.");
+    double a = (double) left;
+    double b = (double) right;
+    switch (operator.type) {
+      case MINUS: return a - b;
+      case STAR: return a * b;
+      case SLASH:
+        if (b == 0)
+          throw new RuntimeError(operator, "Divisor cannot be 0.");
+        return a / b;
+      case GREATER: return a > b;
+      case GREATER_EQUAL: return a >= b;
+      case LESS: return a < b;
+      case LESS_EQUAL: return a <= b;
+      default: throw new IllegalStateException();
+    }
+  }
+
+  // The callee and its arguments are on top of the value stack. A Lox callee
+  // in tail position takes the place of the call that's returning to it, the
+  // same as `TailCall` on the tree-walker. A native one is simply called.
+  private void call(Token paren, int count, boolean tail) {
+    Object callee = values[valueTop - count - 1];
+    if (!(callee instanceof LoxCallable))
+      throw new RuntimeError(paren, "Can only call functions and classes");
+    LoxCallable function = (LoxCallable) callee;
+    if (count != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() +
+                                        " arguments but got " + count + ".");
+    }
+
+    if (callee instanceof StacklessFunction) {
+      if (tail) {
+        unwindCall();
+      } else if (depth == interpreter.maxCallDepth) {
+        throw new RuntimeError(paren, "Stack overflow.");
+      }
+      if (Metrics.enabled)
+        Metrics.functionCalls.increment();
+      enter((StacklessFunction) callee, count);
+      return;
+    }
+
+    if (Metrics.enabled)
+      Metrics.nativeCalls.increment();
+    Object[] arguments =
+        Arrays.copyOfRange(values, valueTop - count, valueTop);
+    Arrays.fill(values, valueTop - count - 1, valueTop, null);
+    valueTop -= count + 1;
+    Object result;
+    try {
+      result = function.call(interpreter, arguments);
+    } catch (NativeError error) {
+      throw new RuntimeError(paren, error.getMessage());
+    }
+    if (tail) {
+      returnValue(result);
+    } else {
+      pushValue(result);
+    }
+  }
+
+  // Binds the arguments on the value stack to a new environment for the body
+  // and pushes the call's entry and then the body.
+  private void enter(StacklessFunction function, int count) {
+    Stmt.Function declaration = function.declaration;
+    Environment callEnvironment =
+        declaration.recyclable
+            ? environmentPool.acquire(function.closure,
+                                      declaration.slotCount)
+            : new Environment(function.closure, declaration.slotCount);
+    int first = valueTop - count;
+    for (int i = 0; i < count; ++i) {
+      callEnvironment.define(i, values[first + i]);
+    }
+    Arrays.fill(values, first - 1, valueTop, null);
+    valueTop = first - 1;
+    ++depth;
+    push(function, 0, environment);
+    push(declaration.body, 0, null);
+    environment = callEnvironment;
+  }
+
+  private void returnValue(Object value) {
+    unwindCall();
+    pushValue(value);
+  }
+
+  // Pops everything the current call pushed, ending each block it's inside on
+  // the way, and then the call's own entry.
+  private void unwindCall() {
+    for (;;) {
+      int index = --top;
+      Object node = nodes[index];
+      Object entrySaved = saved[index];
+      nodes[index] = null;
+      saved[index] = null;
+      if (node instanceof StacklessFunction) {
+        exitCall((StacklessFunction) node, (Environment) entrySaved);
+        return;
+      }
+      if (node instanceof Stmt.Block && steps[index] == 1)
+        exitBlock((Stmt.Block) node, (Environment) entrySaved);
+    }
+  }
+
+  private void exitBlock(Stmt.Block block, Environment enclosing) {
+    if (block.recyclable)
+      environmentPool.release(environment);
+    environment = enclosing;
+  }
+
+  private void exitCall(StacklessFunction function, Environment caller) {
+    if (function.declaration.recyclable)
+      environmentPool.release(environment);
+    environment = caller;
+    --depth;
+  }
+
+  private void push(Object node, int step, Object save) {
+    if (top == nodes.length) {
+      nodes = Arrays.copyOf(nodes, top * 2);
+      steps = Arrays.copyOf(steps, top * 2);
+      saved = Arrays.copyOf(saved, top * 2);
+    }
+    nodes[top] = node;
+    steps[top] = step;
+    saved[top] = save;
+    ++top;
+  }
+
+  private void pushValue(Object value) {
+    if (valueTop == values.length) {
+      values = Arrays.copyOf(values, valueTop * 2);
+    }
+    values[valueTop++] = value;
+  }
+
+  private Object popValue() {
+    Object value = values[--valueTop];
+    values[valueTop] = null;
+    return value;
+  }
+}
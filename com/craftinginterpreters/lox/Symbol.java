@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+// The canonical object for an identifier. The scanner interns every identifier
+// it sees, so two occurrences of the same name share one `Symbol` and can be
+// compared by reference. Maps keyed on symbols use the precomputed hash and
+// identity equality instead of hashing and comparing strings on every lookup.
+final class Symbol {
+  final String name;
+  // Dense and starting at 0, in order of first appearance.
+  final int id;
+  private final int hash;
+
+  private Symbol(String name, int id, int hash) {
+    this.name = name;
+    this.id = id;
+    this.hash = hash;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  // Symbols live for the whole run and are shared by every script and REPL
+  // line, so the same name always maps to the same symbol. Open addressing
+  // with linear probing. The table is at most half full.
+  //
+  // Files may be scanned on several threads at once. Lookups of names that
+  // are already interned don't lock: entries are never removed or moved
+  // within a table, and growing publishes a new, fully built table. A reader
+  // that misses a symbol added concurrently looks again under the lock
+  // before adding it.
+  private static volatile Symbol[] table = new Symbol[256];
+  private static int count = 0;
+
+  static Symbol intern(String name) {
+    return intern(name, 0, name.length());
+  }
+
+  // Looks up `source[start, end)` without copying it out first. Only a name
+  // that hasn't been seen before allocates a string.
+  static Symbol intern(CharSequence source, int start, int end) {
+    int hash = hash(source, start, end);
+    Symbol symbol = find(table, hash, source, start, end);
+    return symbol != null ? symbol : add(hash, source, start, end);
+  }
+
+  private static synchronized Symbol add(int hash, CharSequence source,
+                                         int start, int end) {
+    Symbol[] table = Symbol.table;
+    Symbol symbol = find(table, hash, source, start, end);
+    if (symbol != null)
+      return symbol;
+
+    symbol = new Symbol(source.subSequence(start, end).toString(), count++,
+                        hash);
+    int mask = table.length - 1;
+    int index = hash & mask;
+    while (table[index] != null)
+      index = (index + 1) & mask;
+    table[index] = symbol;
+    if (count * 2 > table.length)
+      grow();
+    return symbol;
+  }
+
+  private static Symbol find(Symbol[] table, int hash, CharSequence source,
+                             int start, int end) {
+    int mask = table.length - 1;
+    int index = hash & mask;
+    for (Symbol symbol; (symbol = table[index]) != null;
+         index = (index + 1) & mask) {
+      if (symbol.hash == hash && matches(symbol.name, source, start, end))
+        return symbol;
+    }
+    return null;
+  }
+
+  // Same as `String.hashCode()`, so a symbol's hash agrees with its name's.
+  private static int hash(CharSequence source, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; ++i) {
+      hash = 31 * hash + source.charAt(i);
+    }
+    return hash;
+  }
+
+  private static boolean matches(String name, CharSequence source, int start,
+                                 int end) {
+    if (name.length() != end - start)
+      return false;
+    for (int i = 0; i < name.length(); ++i) {
+      if (name.charAt(i) != source.charAt(start + i))
+        return false;
+    }
+    return true;
+  }
+
+  private static void grow() {
+    Symbol[] old = table;
+    Symbol[] grown = new Symbol[old.length * 2];
+    int mask = grown.length - 1;
+    for (Symbol symbol : old) {
+      if (symbol == null)
+        continue;
+      int index = symbol.hash & mask;
+      while (grown[index] != null)
+        index = (index + 1) & mask;
+      grown[index] = symbol;
+    }
+    table = grown;
+  }
+}
@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+// A call to a Lox function in tail position, handed back as the value of the
+// function that made it. `LoxFunction.call()` then makes the call itself, in
+// place of the one that just finished, so a chain of tail calls runs in a loop
+// instead of growing the Java stack. Lox code never sees one of these.
+final class TailCall {
+  final LoxFunction function;
+  final Object[] arguments;
+
+  TailCall(LoxFunction function, Object[] arguments) {
+    this.function = function;
+    this.arguments = arguments;
+  }
+}
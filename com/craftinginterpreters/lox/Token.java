@@ -2,18 +2,62 @@ package com.craftinginterpreters.lox;
 
 class Token {
   final TokenType type;
-  final String lexeme;
   final Object literal;
   final int line;
+  // The interned name of an identifier, or null for any other kind of token.
+  final Symbol symbol;
+  // A scanned token only remembers where its lexeme is in the source, and
+  // copies it out the first time someone asks for it. Most lexemes are never
+  // needed after parsing, so this keeps large scripts from being held in
+  // memory twice.
+  private CharSequence source;
+  private final int start;
+  private final int end;
+  private String lexeme;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = type == TokenType.IDENTIFIER ? Symbol.intern(lexeme) : null;
+    this.source = null;
+    this.start = 0;
+    this.end = 0;
+  }
+
+  // An identifier's lexeme is its symbol's name, so it's never copied again.
+  Token(Symbol symbol, int line) {
+    this.type = TokenType.IDENTIFIER;
+    this.lexeme = symbol.name;
+    this.literal = null;
+    this.line = line;
+    this.symbol = symbol;
+    this.source = null;
+    this.start = 0;
+    this.end = 0;
+  }
+
+  Token(TokenType type, CharSequence source, int start, int end,
+        Object literal, int line) {
+    this.type = type;
+    this.source = source;
+    this.start = start;
+    this.end = end;
+    this.literal = literal;
+    this.line = line;
+    this.symbol = null;
+  }
+
+  String lexeme() {
+    if (lexeme == null) {
+      lexeme = source.subSequence(start, end).toString();
+      source = null;
+    }
+    return lexeme;
   }
 
   public String toString() {
-    return type + " " + lexeme + " " + literal;
+    return type + " " + lexeme() + " " + literal;
   }
 }
@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Tokens stored as primitives instead of `Token` objects. Each token is an
+// index: `types[i]` is its type's ordinal, `lines[i]` its line, `spans[i]`
+// packs where its lexeme starts in the source and how long it is, and a
+// number's value is in `numbers[i]`. Nothing is copied out of the source or interned until someone
+// asks for a `Token`.
+//
+// The scanner writes tokens at whatever index it's given, so a buffer can hold
+// a whole file or, as in the parser, just the last couple of tokens.
+final class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private byte[] types;
+  private int[] lines;
+  private long[] spans;
+  private double[] numbers;
+
+  TokenBuffer(int capacity) {
+    types = new byte[capacity];
+    lines = new int[capacity];
+    spans = new long[capacity];
+    numbers = new double[capacity];
+  }
+
+  void set(int index, TokenType type, int start, int end, int line) {
+    if (index >= types.length) {
+      int capacity = Math.max(types.length * 2, index + 1);
+      types = Arrays.copyOf(types, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      spans = Arrays.copyOf(spans, capacity);
+      numbers = Arrays.copyOf(numbers, capacity);
+    }
+    types[index] = (byte) type.ordinal();
+    lines[index] = line;
+    spans[index] = (long) start << 32 | (end - start);
+  }
+
+  void setNumber(int index, double value) {
+    numbers[index] = value;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+
+  int start(int index) {
+    return (int) (spans[index] >>> 32);
+  }
+
+  int end(int index) {
+    return start(index) + (int) spans[index];
+  }
+
+  double number(int index) {
+    return numbers[index];
+  }
+
+  // Builds the `Token` for a token in `source`. Identifiers are interned and
+  // string and number tokens get their values.
+  Token token(int index, CharSequence source) {
+    TokenType type = type(index);
+    int start = start(index);
+    int end = end(index);
+    switch (type) {
+      case IDENTIFIER:
+        return new Token(Symbol.intern(source, start, end), line(index));
+      case NUMBER:
+        return new Token(type, source, start, end, numbers[index], line(index));
+      case STRING:
+        return new Token(type, source, start, end, string(index, source),
+                         line(index));
+      default: return new Token(type, source, start, end, null, line(index));
+    }
+  }
+
+  // The value of a string token, without its quotes.
+  String string(int index, CharSequence source) {
+    return source.subSequence(start(index) + 1, end(index) - 1).toString();
+  }
+}
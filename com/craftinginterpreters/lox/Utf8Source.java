@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Lets the scanner read a UTF-8 file in place, typically memory-mapped, so
+// the file is never decoded into one big string.
+//
+// Indices are byte offsets and `charAt()` returns each byte as a char. Every
+// character that means something to the scanner is ASCII, and UTF-8 never
+// uses ASCII bytes inside a multi-byte character, so the scanner works on
+// the raw bytes unchanged. Only the text it copies out, lexemes and string
+// literals, gets decoded.
+final class Utf8Source implements CharSequence {
+  private final ByteBuffer bytes;
+
+  Utf8Source(ByteBuffer bytes) {
+    this.bytes = bytes;
+  }
+
+  // The mapping outlives the channel, and is released once the last token
+  // pointing into it is gone.
+  static Utf8Source map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Script too large to map: " + path);
+      }
+      return new Utf8Source(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  // A view of the whole source that the caller can consume freely.
+  ByteBuffer bytes() {
+    return bytes.duplicate();
+  }
+
+  // A continuation byte is any byte of a multi-byte character but the first.
+  static boolean isContinuation(char c) {
+    return c >= 0x80 && c <= 0xbf;
+  }
+
+  @Override
+  public int length() {
+    return bytes.limit();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return (char) (bytes.get(index) & 0xff);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return new Utf8Source(bytes.slice(start, end - start));
+  }
+
+  // Malformed input decodes to U+FFFD rather than failing.
+  @Override
+  public String toString() {
+    return StandardCharsets.UTF_8.decode(bytes.duplicate()).toString();
+  }
+}
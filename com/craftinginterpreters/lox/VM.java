@@ -0,0 +1,433 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// A stack-based virtual machine that runs the bytecode produced by
+// `Compiler`. Calls between Lox functions push a `CallFrame` instead of
+// recursing on the Java stack. Globals and native functions are shared with
+// the tree-walking interpreter, so both engines see the same global state.
+class VM {
+  private static class CallFrame {
+    CompiledFunction function;
+    int ip;
+    // Where the callee sits on the value stack. Everything above it belongs to
+    // this call.
+    int base;
+    // The environment to restore once this call returns.
+    Environment callerEnvironment;
+  }
+
+  private final Interpreter interpreter;
+  private final GlobalEnvironment globals;
+  private final EnvironmentPool environmentPool = new EnvironmentPool();
+
+  private Object[] stack = new Object[256];
+  private int stackTop = 0;
+  private CallFrame[] frames = new CallFrame[64];
+  private int frameCount = 0;
+  // Frames of Lox functions, which is all of them but the script's. Limited
+  // to `Interpreter.maxCallDepth`, the same as the interpreter's calls.
+  private int depth = 0;
+  private Environment environment = null;
+
+  VM(Interpreter interpreter) {
+    this.interpreter = interpreter;
+    this.globals = interpreter.globalEnvironment;
+  }
+
+  void interpret(CompiledFunction script) {
+    try {
+      push(new VmFunction(script, null, this));
+      callValue(0, 0);
+      run(0);
+      pop();
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      // Discard whatever the failed script left behind.
+      Arrays.fill(stack, 0, stackTop, null);
+      stackTop = 0;
+      frameCount = 0;
+      depth = 0;
+      environment = null;
+    }
+  }
+
+  // Calls a function from Java code, for example when a native function calls
+  // back into Lox. Runs a nested loop that returns once the call does.
+  Object call(VmFunction function, List<Object> arguments) {
+    int exitFrameCount = frameCount;
+    push(function);
+    for (Object argument : arguments) {
+      push(argument);
+    }
+    int line = exitFrameCount == 0
+                   ? 0
+                   : currentLine(frames[exitFrameCount - 1]);
+    callValue(arguments.size(), line);
+    run(exitFrameCount);
+    return pop();
+  }
+
+  // Runs until the frame count drops back to `exitFrameCount`. The return
+  // value of the last call is left on the stack.
+  private void run(int exitFrameCount) {
+    CallFrame frame = frames[frameCount - 1];
+    byte[] code = frame.function.chunk.code;
+    List<Object> constants = frame.function.chunk.constants;
+    int ip = frame.ip;
+
+    for (;;) {
+      int start = ip;
+      byte instruction = code[ip++];
+      switch (instruction) {
+        case OpCode.CONSTANT:
+          push(constants.get(readShort(code, ip)));
+          ip += 2;
+          break;
+        case OpCode.NIL: push(null); break;
+        case OpCode.TRUE: push(true); break;
+        case OpCode.FALSE: push(false); break;
+        case OpCode.SHADOWED:
+          push(environment.shadowedValue(
+              (Stmt.Var) constants.get(readShort(code, ip)), globals));
+          ip += 2;
+          break;
+        case OpCode.POP: pop(); break;
+
+        case OpCode.GET_LOCAL: {
+          int depth = readShort(code, ip);
+          int slot = readShort(code, ip + 2);
+          Token name = (Token) constants.get(readShort(code, ip + 4));
+          ip += 6;
+          push(environment.getAt(depth, slot, name));
+          break;
+        }
+        case OpCode.SET_LOCAL:
+          environment.assignAt(readShort(code, ip), readShort(code, ip + 2),
+                               peek(0));
+          ip += 4;
+          break;
+        case OpCode.DEFINE_LOCAL:
+          environment.define(readShort(code, ip), pop());
+          ip += 2;
+          break;
+        case OpCode.GET_GLOBAL:
+          push(globals.get((Token) constants.get(readShort(code, ip))));
+          ip += 2;
+          break;
+        case OpCode.SET_GLOBAL:
+          globals.assign((Token) constants.get(readShort(code, ip)), peek(0));
+          ip += 2;
+          break;
+        case OpCode.DEFINE_GLOBAL:
+          globals.define(((Token) constants.get(readShort(code, ip))).symbol,
+                         pop());
+          ip += 2;
+          break;
+        case OpCode.DECLARE_GLOBAL:
+          globals.addUndefinedVariable(
+              ((Token) constants.get(readShort(code, ip))).symbol);
+          ip += 2;
+          break;
+
+        case OpCode.EQUAL: {
+          Object b = pop();
+          push(Interpreter.isEqual(pop(), b));
+          break;
+        }
+        case OpCode.NOT_EQUAL: {
+          Object b = pop();
+          push(!Interpreter.isEqual(pop(), b));
+          break;
+        }
+        case OpCode.GREATER: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          push((double) pop() > b);
+          break;
+        }
+        case OpCode.GREATER_EQUAL: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          push((double) pop() >= b);
+          break;
+        }
+        case OpCode.LESS: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          push((double) pop() < b);
+          break;
+        }
+        case OpCode.LESS_EQUAL: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          push((double) pop() <= b);
+          break;
+        }
+        case OpCode.ADD: {
+          Object b = pop();
+          Object a = pop();
+          if (a == null || b == null) {
+            throw error(frame, start, "Operands must not be nil.");
+          }
+          if (a instanceof Double && b instanceof Double) {
+            push((double) a + (double) b);
+          } else if (a instanceof String || b instanceof String) {
+            push(Interpreter.stringify(a) + Interpreter.stringify(b));
+          } else {
+            throw error(frame, start,
+                        "At lease one operand must be a string.");
+          }
+          break;
+        }
+        case OpCode.SUBTRACT: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          push((double) pop() - b);
+          break;
+        }
+        case OpCode.MULTIPLY: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          push((double) pop() * b);
+          break;
+        }
+        case OpCode.DIVIDE: {
+          checkNumberOperands(frame, start);
+          double b = (double) pop();
+          if (b == 0) {
+            throw error(frame, start, "Divisor cannot be 0.");
+          }
+          push((double) pop() / b);
+          break;
+        }
+        case OpCode.NOT: push(!Interpreter.isTruthy(pop())); break;
+        case OpCode.NEGATE:
+          if (!(peek(0) instanceof Double)) {
+            throw error(frame, start, "Operand must be a number.");
+          }
+          push(-(double) pop());
+          break;
+
+        case OpCode.PRINT:
+          System.out.println(Interpreter.stringify(pop()));
+          break;
+        case OpCode.JUMP: ip += 2 + readShort(code, ip); break;
+        case OpCode.JUMP_IF_FALSE:
+          if (Interpreter.isTruthy(peek(0))) {
+            ip += 2;
+          } else {
+            ip += 2 + readShort(code, ip);
+          }
+          break;
+        case OpCode.LOOP: ip = ip + 2 - readShort(code, ip); break;
+
+        case OpCode.CALL: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          if (callValue(argCount, frame.function.chunk.lines[start])) {
+            frame = frames[frameCount - 1];
+            code = frame.function.chunk.code;
+            constants = frame.function.chunk.constants;
+            ip = frame.ip;
+          }
+          break;
+        }
+        case OpCode.CLOSURE: {
+          CompiledFunction function =
+              (CompiledFunction) constants.get(readShort(code, ip));
+          ip += 2;
+          push(new VmFunction(function, environment, this));
+          break;
+        }
+        // A Lox callee takes over the current frame: the frame is popped as if
+        // it returned, the callee and its arguments slide down to where its
+        // callee was and the new call's frame is pushed in its place. Anything
+        // else is called as usual and its result returned.
+        case OpCode.TAIL_CALL: {
+          int argCount = code[ip++] & 0xff;
+          frame.ip = ip;
+          int line = frame.function.chunk.lines[start];
+          Object callee = peek(argCount);
+          if (!(callee instanceof VmFunction) ||
+              ((VmFunction) callee).function.arity != argCount) {
+            callValue(argCount, line);
+            if (returnFrom(frame, exitFrameCount))
+              return;
+          } else {
+            if (frame.function.recyclable && environment != null)
+              environmentPool.release(environment);
+            environment = frame.callerEnvironment;
+            frame.callerEnvironment = null;
+            int calleeTop = frame.base + argCount + 1;
+            System.arraycopy(stack, stackTop - argCount - 1, stack,
+                             frame.base, argCount + 1);
+            Arrays.fill(stack, calleeTop, stackTop, null);
+            stackTop = calleeTop;
+            --frameCount;
+            --depth;
+            callValue(argCount, line);
+          }
+          frame = frames[frameCount - 1];
+          code = frame.function.chunk.code;
+          constants = frame.function.chunk.constants;
+          ip = frame.ip;
+          break;
+        }
+        case OpCode.RETURN: {
+          if (returnFrom(frame, exitFrameCount))
+            return;
+          frame = frames[frameCount - 1];
+          code = frame.function.chunk.code;
+          constants = frame.function.chunk.constants;
+          ip = frame.ip;
+          break;
+        }
+
+        case OpCode.ENTER_SCOPE: {
+          int slotCount = readShort(code, ip);
+          boolean recyclable = code[ip + 2] != 0;
+          ip += 3;
+          environment = recyclable
+                            ? environmentPool.acquire(environment, slotCount)
+                            : new Environment(environment, slotCount);
+          break;
+        }
+        case OpCode.EXIT_SCOPE: {
+          Environment exited = environment;
+          environment = exited.enclosing;
+          if (code[ip++] != 0)
+            environmentPool.release(exited);
+          break;
+        }
+
+        default:
+          throw error(frame, start, "Unknown opcode " + instruction + ".");
+      }
+    }
+  }
+
+  // Pops `frame` and leaves the value on top of the stack as its result.
+  // Returns true if that was the last frame `run()` has to finish.
+  private boolean returnFrom(CallFrame frame, int exitFrameCount) {
+    Object result = pop();
+    // In a recyclable function nothing can have captured the current
+    // environment, even if we're returning from a nested block.
+    if (frame.function.recyclable && environment != null)
+      environmentPool.release(environment);
+    environment = frame.callerEnvironment;
+    frame.callerEnvironment = null;
+    if (frame.function.name != null)
+      --depth;
+    Arrays.fill(stack, frame.base, stackTop, null);
+    stackTop = frame.base;
+    push(result);
+    return --frameCount == exitFrameCount;
+  }
+
+  // Returns true if a new frame was pushed. Native functions run immediately
+  // and leave their result on the stack.
+  private boolean callValue(int argCount, int line) {
+    Object callee = peek(argCount);
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(line, "Can only call functions and classes");
+    }
+    LoxCallable function = (LoxCallable) callee;
+    if (argCount != function.arity()) {
+      throw new RuntimeError(line, "Expected " + function.arity() +
+                                       " arguments but got " + argCount +
+                                       ".");
+    }
+
+    if (callee instanceof VmFunction) {
+      VmFunction closure = (VmFunction) callee;
+      CompiledFunction compiled = closure.function;
+      if (compiled.name != null) {
+        if (depth == interpreter.maxCallDepth) {
+          throw new RuntimeError(line, "Stack overflow.");
+        }
+        ++depth;
+      }
+      if (frameCount == frames.length) {
+        frames = Arrays.copyOf(frames, frameCount * 2);
+      }
+      CallFrame frame = frames[frameCount];
+      if (frame == null) {
+        frame = frames[frameCount] = new CallFrame();
+      }
+      ++frameCount;
+      frame.function = compiled;
+      frame.ip = 0;
+      frame.base = stackTop - argCount - 1;
+      frame.callerEnvironment = environment;
+
+      // The script itself runs at the top level, where there's no local
+      // environment.
+      if (compiled.name == null) {
+        environment = null;
+        return true;
+      }
+      if (Metrics.enabled)
+        Metrics.functionCalls.increment();
+      environment = compiled.recyclable
+                        ? environmentPool.acquire(closure.closure,
+                                                  compiled.slotCount)
+                        : new Environment(closure.closure, compiled.slotCount);
+      for (int i = 0; i < argCount; ++i) {
+        environment.define(i, stack[frame.base + 1 + i]);
+      }
+      return true;
+    }
+
+    if (Metrics.enabled)
+      Metrics.nativeCalls.increment();
+    Object[] arguments = Arrays.copyOfRange(stack, stackTop - argCount,
+                                            stackTop);
+    Object result;
+    try {
+      result = function.call(interpreter, arguments);
+    } catch (NativeError error) {
+      throw new RuntimeError(line, error.getMessage());
+    }
+    Arrays.fill(stack, stackTop - argCount - 1, stackTop, null);
+    stackTop -= argCount + 1;
+    push(result);
+    return false;
+  }
+
+  private void checkNumberOperands(CallFrame frame, int start) {
+    if (peek(0) instanceof Double && peek(1) instanceof Double)
+      return;
+    throw error(frame, start, "Operands must be numbers.");
+  }
+
+  private RuntimeError error(CallFrame frame, int start, String message) {
+    return new RuntimeError(frame.function.chunk.lines[start], message);
+  }
+
+  private static int currentLine(CallFrame frame) {
+    return frame.function.chunk.lines[Math.max(frame.ip - 1, 0)];
+  }
+
+  private static int readShort(byte[] code, int offset) {
+    return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+  }
+
+  private void push(Object value) {
+    if (stackTop == stack.length) {
+      stack = Arrays.copyOf(stack, stackTop * 2);
+    }
+    stack[stackTop++] = value;
+  }
+
+  private Object pop() {
+    Object value = stack[--stackTop];
+    stack[stackTop] = null;
+    return value;
+  }
+
+  private Object peek(int distance) {
+    return stack[stackTop - 1 - distance];
+  }
+}
@@ -0,0 +1,34 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A compiled function closed over the environment it was declared in. This is
+// the VM's counterpart of `LoxFunction`.
+class VmFunction implements LoxCallable {
+  final CompiledFunction function;
+  final Environment closure;
+  private final VM vm;
+
+  VmFunction(CompiledFunction function, Environment closure, VM vm) {
+    this.function = function;
+    this.closure = closure;
+    this.vm = vm;
+  }
+
+  @Override
+  public int arity() {
+    return function.arity;
+  }
+
+  // Only used when Java code calls back into Lox. Calls from Lox code are
+  // handled inside the VM loop without going through here.
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return vm.call(this, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return function.toString();
+  }
+}
@@ -6,36 +6,57 @@ import java.util.Arrays;
 import java.util.List;
 
 public class GenerateAst {
+  // Nodes that rewrite themselves based on the values they see at runtime. See
+  // `Specialization`.
+  private static final String SPECIALIZATION =
+      "Specialization specialization = Specialization.UNINITIALIZED";
+
   public static void main(String[] args) throws IOException {
     if (args.length != 1) {
       System.err.println("Usage: generate_ast <output directory>");
       System.exit(64);
     }
     String outputDir = args[0];
-    defineAst(outputDir, "Expr",
+    defineAst(outputDir, "Expr", "",
               Arrays.asList(
-                  "Assign   : Token name, Expr value",
-                  "Binary   : Expr left, Token operator, Expr right",
-                  "Call     : Expr callee, Token paren, List<Expr> arguments",
+                  "Assign   : Token name, Expr value"
+                      + " | int depth = -1, int slot",
+                  "Binary   : Expr left, Token operator, Expr right"
+                      + " | boolean numericLeft, boolean numericRight, "
+                      + SPECIALIZATION,
+                  "Call     : Expr callee, Token paren, List<Expr> arguments"
+                      + " | LoxCallable cachedCallee",
                   "Grouping : Expr expression", "Literal  : Object value",
-                  "Logical  : Expr left, Token operator, Expr right",
-                  "Unary    : Token operator, Expr right",
-                  "Variable : Token name"));
-
+                  "Logical  : Expr left, Token operator, Expr right | "
+                      + SPECIALIZATION,
+                  "Unary    : Token operator, Expr right"
+                      + " | boolean numericRight, " + SPECIALIZATION,
+                  "Variable : Token name | int depth = -1, int slot, "
+                      + SPECIALIZATION));
+
+    // Every statement remembers the line it starts on, for instrumentation.
     defineAst(
-        outputDir, "Stmt",
+        outputDir, "Stmt", "int line",
         Arrays.asList(
-            "Block      : List<Stmt> statements",
+            "Block      : List<Stmt> statements"
+                + " | int slotCount, boolean recyclable",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "Function   : Token name, List<Token> params, List<Stmt> body"
+                + " | int slot = -1, int slotCount, boolean recyclable,"
+                + " int callCount, JitCode jitCode, boolean jitFailed",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
             "Print      : Expr expression",
-            "Var        : Token name, Expr initializer",
+            "Return     : Token keyword, Expr value | boolean tailCall",
+            "Var        : Token name, Expr initializer"
+                + " | int slot = -1, int shadowDepth = -1, int shadowSlot",
             "While      : Expr condition, Stmt body"));
   }
 
+  // `baseFields` are mutable fields shared by every node type, declared on the
+  // base class.
   private static void defineAst(String outputDir, String baseName,
-                                List<String> types) throws IOException {
+                                String baseFields, List<String> types)
+      throws IOException {
     String path = outputDir + "/" + baseName + ".java";
     PrintWriter writer = new PrintWriter(path, "UTF-8");
 
@@ -47,11 +68,25 @@ public class GenerateAst {
 
     defineVisitor(writer, baseName, types);
 
+    if (!baseFields.isEmpty()) {
+      writer.println();
+      for (String field : baseFields.split(", ")) {
+        writer.println("  " + field + ";");
+      }
+    }
+
     // The AST classes.
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      // Anything after '|' is a mutable field that isn't passed to the
+      // constructor. The resolver fills these in after parsing.
+      String resolvedFields = "";
+      if (fields.contains("|")) {
+        resolvedFields = fields.split("\\|")[1].trim();
+        fields = fields.split("\\|")[0].trim();
+      }
+      defineType(writer, baseName, className, fields, resolvedFields);
     }
 
     // The base accept() method.
@@ -76,7 +111,8 @@ public class GenerateAst {
   }
 
   private static void defineType(PrintWriter writer, String baseName,
-                                 String className, String fieldList) {
+                                 String className, String fieldList,
+                                 String resolvedFieldList) {
     writer.println("  static class " + className + " extends " + baseName +
                    " {");
 
@@ -105,6 +141,11 @@ public class GenerateAst {
     for (String field : fields) {
       writer.println("    final " + field + ";");
     }
+    if (!resolvedFieldList.isEmpty()) {
+      for (String field : resolvedFieldList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
 
     writer.println("  }");
   }
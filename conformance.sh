@@ -0,0 +1,45 @@
+# Runs every script in conformance/ on each engine and in each of the other
+# modes below, and fails if the output, errors or exit code differ from the
+# script's .expected file. `conformance.sh --update` rewrites the .expected
+# files from the tree-walking interpreter's defaults instead; check the diff
+# before committing it.
+javac -encoding UTF-8 com/craftinginterpreters/lox/*.java || exit 1
+
+status=0
+for script in conformance/*.lox; do
+  expected_file="${script%.lox}.expected"
+  if [ "$1" = "--update" ]; then
+    java com.craftinginterpreters.lox.Lox "$script" > "$expected_file" 2>&1
+    echo "exit $?" >> "$expected_file"
+  fi
+  if [ ! -f "$expected_file" ]; then
+    echo "FAIL $script (no $expected_file)"
+    status=1
+    continue
+  fi
+  expected=$(cat "$expected_file")
+  for flags in --engine=tree --engine=vm --engine=flat --engine=stackless \
+               --jit=0 --no-optimize --mmap; do
+    actual=$(java com.craftinginterpreters.lox.Lox $flags "$script" 2>&1; echo "exit $?")
+    if [ "$expected" != "$actual" ]; then
+      echo "FAIL $script ($flags)"
+      diff <(echo "$expected") <(echo "$actual")
+      status=1
+    fi
+  done
+done
+
+# Coverage reports on the tree as written, so dead code shows up as lines that
+# never ran. Each coverage_*.lox has its report in a .lcov file next to it,
+# without the SF: line, which holds an absolute path.
+for script in conformance/coverage_*.lox; do
+  report=$(mktemp)
+  java com.craftinginterpreters.lox.Lox --coverage="$report" "$script" > /dev/null 2>&1
+  if ! diff <(grep -v '^SF:' "$report") "${script%.lox}.lcov"; then
+    echo "FAIL $script (--coverage)"
+    status=1
+  fi
+  rm -f "$report"
+done
+[ $status -eq 0 ] && echo "All conformance scripts match."
+exit $status
@@ -0,0 +1,2 @@
+javac -encoding UTF-8 -sourcepath .:benchmark benchmark/com/craftinginterpreters/lox/GlobalsBenchmark.java
+java -cp .:benchmark com.craftinginterpreters.lox.GlobalsBenchmark "$@"
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Scanning and parsing generated sources of increasing size.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+  // Size of the generated source, in characters.
+  @Param({"16384", "1048576"})
+  int size;
+
+  private String source;
+
+  @Setup
+  public void setUp() {
+    source = Workloads.generate(size);
+  }
+
+  @Benchmark
+  public void scan(Blackhole blackhole) {
+    Scanner scanner = new Scanner(source);
+    TokenBuffer tokens = new TokenBuffer(1);
+    TokenType type;
+    do {
+      type = scanner.scan(tokens, 0);
+      blackhole.consume(type);
+    } while (type != TokenType.EOF);
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(new Scanner(source)).parseStatements();
+  }
+
+  @Benchmark
+  public List<Stmt> parseAndResolve() {
+    List<Stmt> statements = new Parser(new Scanner(source)).parseStatements();
+    new Resolver().resolve(statements);
+    return statements;
+  }
+}
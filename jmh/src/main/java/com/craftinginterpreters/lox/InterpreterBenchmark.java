@@ -0,0 +1,51 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Runs each workload on a fresh tree-walking interpreter. Scanning, parsing
+// and resolving happen once in setup and aren't measured.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({"fib", "numericLoop", "stringConcat", "deepScopes", "generated"})
+  String workload;
+
+  private List<Stmt> statements;
+  private PrintStream out;
+
+  @Setup
+  public void setUp() {
+    statements = Workloads.compile(Workloads.get(workload));
+    out = Workloads.silenceOutput();
+  }
+
+  @TearDown
+  public void tearDown() {
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public Interpreter interpret() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.interpret(statements);
+    return interpreter;
+  }
+}
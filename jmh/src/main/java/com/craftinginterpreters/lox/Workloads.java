@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+// Lox programs shared by the benchmarks. Each interpreter workload is small
+// enough to run in a few milliseconds and prints one value at the end.
+final class Workloads {
+  private Workloads() {}
+
+  static final String FIB = String.join("\n",
+      "fun fib(n) {",
+      "  if (n < 2) return n;",
+      "  return fib(n - 1) + fib(n - 2);",
+      "}",
+      "print fib(20);");
+
+  static final String NUMERIC_LOOP = String.join("\n",
+      "var inside = 0;",
+      "for (var x = -100; x <= 100; x = x + 1) {",
+      "  for (var y = -100; y <= 100; y = y + 1) {",
+      "    if (x * x + y * y <= 10000) inside = inside + 1;",
+      "  }",
+      "}",
+      "print inside;");
+
+  static final String STRING_CONCAT = String.join("\n",
+      "var s = \"\";",
+      "var i = 0;",
+      "while (i < 2000) {",
+      "  s = s + \"x\";",
+      "  i = i + 1;",
+      "}",
+      "print s == \"\";");
+
+  static final String DEEP_SCOPES = String.join("\n",
+      "var total = 0;",
+      "for (var i = 0; i < 5000; i = i + 1) {",
+      "  var a = i;",
+      "  { var b = a + 1;",
+      "    { var c = b + 1;",
+      "      { var d = c + 1;",
+      "        { var e = d + 1;",
+      "          { var f = e + 1;",
+      "            total = total + a + b + c + d + e + f;",
+      "          }",
+      "        }",
+      "      }",
+      "    }",
+      "  }",
+      "}",
+      "print total;");
+
+  static String get(String name) {
+    switch (name) {
+      case "fib": return FIB;
+      case "numericLoop": return NUMERIC_LOOP;
+      case "stringConcat": return STRING_CONCAT;
+      case "deepScopes": return DEEP_SCOPES;
+      case "generated": return generate(64 * 1024);
+      default: throw new IllegalArgumentException("Unknown workload " + name);
+    }
+  }
+
+  // A valid program of roughly `size` characters: many small functions, each
+  // declaring locals and looping a little, and a call to each at the end.
+  static String generate(int size) {
+    StringBuilder builder = new StringBuilder(size + 256);
+    int functions = 0;
+    while (builder.length() < size) {
+      builder.append("fun f").append(functions).append("(count) {\n")
+          .append("  var total = 0;\n")
+          .append("  for (var i = 0; i < count; i = i + 1) {\n")
+          .append("    var scaled = i * ").append(functions % 7 + 1)
+          .append(";\n")
+          .append("    if (scaled > 10 and total < 1000) total = total + ")
+          .append("scaled; else total = total - 1;\n")
+          .append("  }\n")
+          .append("  return total;\n")
+          .append("}\n");
+      ++functions;
+    }
+    builder.append("var sum = 0;\n");
+    for (int i = 0; i < functions; ++i) {
+      builder.append("sum = sum + f").append(i).append("(4);\n");
+    }
+    builder.append("print sum;\n");
+    return builder.toString();
+  }
+
+  // Scans, parses and resolves `source`, failing loudly on a static error so
+  // a broken workload can't silently benchmark nothing.
+  static List<Stmt> compile(String source) {
+    List<Stmt> statements = new Parser(new Scanner(source)).parseStatements();
+    new Resolver().resolve(statements);
+    if (Lox.hadError) {
+      throw new IllegalStateException("Workload has a static error.");
+    }
+    return statements;
+  }
+
+  // The workloads print their result. Keeps that out of the benchmark output.
+  static PrintStream silenceOutput() {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    return out;
+  }
+}
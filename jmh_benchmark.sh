@@ -0,0 +1,10 @@
+# Builds the interpreter and the JMH benchmarks, then runs them with the GC
+# profiler (for gc.alloc.rate.norm). Results go to jmh/results/<commit>.json so
+# runs on different commits can be compared. Extra arguments go to JMH, e.g. a
+# benchmark name regex or `-p workload=fib`.
+mvn -B -q install -DskipTests || exit 1
+mvn -B -q -f jmh/pom.xml package || exit 1
+mkdir -p jmh/results
+result="jmh/results/$(git rev-parse --short HEAD).json"
+java -jar jmh/target/benchmarks.jar -prof gc -rf json -rff "$result" "$@"
+echo "Results written to $result"